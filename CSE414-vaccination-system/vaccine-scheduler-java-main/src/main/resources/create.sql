@@ -1,7 +1,12 @@
+-- Hash holds PasswordHasher's self-describing format. An existing database can be migrated with
+--   ALTER TABLE Caregivers ALTER COLUMN Hash VARBINARY(128);
+--   ALTER TABLE Patients ALTER COLUMN Hash VARBINARY(128);
+-- after which old padded hashes keep verifying and are rewritten on the user's next login.
+
 CREATE TABLE Caregivers (
     Username varchar(255),
     Salt BINARY(16),
-    Hash BINARY(16),
+    Hash VARBINARY(128),
     PRIMARY KEY (Username)
 );
 
@@ -20,7 +25,7 @@ CREATE TABLE Vaccines (
 CREATE TABLE Patients (
     Username varchar(255),
     Salt BINARY(16),
-    Hash BINARY(16),
+    Hash VARBINARY(128),
     PRIMARY KEY (Username)
 );
 
@@ -31,4 +36,50 @@ CREATE TABLE Appointments (
     Vaccine_name varchar(255) REFERENCES Vaccines,
     Time date,
     PRIMARY KEY (Appointment_id)
-);
\ No newline at end of file
+);
+
+-- Availabilities(Time, Username) is already covered by its primary key.
+-- These cover show_appointments for either side and the per-caregiver, per-date lookups.
+CREATE INDEX IX_Appointments_Patient ON Appointments (Patient_name)
+    INCLUDE (Vaccine_name, Time, Caregiver_name);
+
+CREATE INDEX IX_Appointments_Caregiver ON Appointments (Caregiver_name)
+    INCLUDE (Vaccine_name, Time, Patient_name);
+
+CREATE INDEX IX_Appointments_Time_Caregiver ON Appointments (Time, Caregiver_name);
+
+-- Free caregivers per date, so open dates are one range scan of the primary key. Uploads, reserves and
+-- cancels queue their changes to it after they commit, so it trails Availabilities by a moment and a
+-- crashed scheduler can leave it off. Dates whose count dropped to zero keep their row.
+-- Check or rebuild it with: Scheduler --check-summary [--rebuild]
+CREATE TABLE AvailabilitySummary (
+    Time date,
+    Free_caregivers int NOT NULL,
+    PRIMARY KEY (Time)
+);
+
+-- Login sessions that survive a restart or move to another scheduler instance, only used when
+-- PersistentSessions=1. Tokens are stored as their SHA-256 so the table can't be used to log in.
+CREATE TABLE Sessions (
+    Token_hash BINARY(32),
+    Username varchar(255),
+    Is_caregiver bit NOT NULL,
+    Expires datetime2 NOT NULL,
+    PRIMARY KEY (Token_hash)
+);
+
+-- Patients waiting for a date and vaccine that had no free caregiver or dose left. Capacity freed by
+-- an upload, added doses or a cancellation books them in Waitlist_id order, or by Priority first
+-- with WaitlistOrder=priority.
+CREATE TABLE Waitlist (
+    Waitlist_id int IDENTITY(1, 1),
+    Patient_name varchar(255) REFERENCES Patients,
+    Vaccine_name varchar(255) REFERENCES Vaccines,
+    Time date,
+    Priority int NOT NULL,
+    PRIMARY KEY (Waitlist_id)
+);
+
+CREATE UNIQUE INDEX IX_Waitlist_Entry ON Waitlist (Time, Vaccine_name, Patient_name);
+
+CREATE INDEX IX_Waitlist_Vaccine ON Waitlist (Vaccine_name, Time);
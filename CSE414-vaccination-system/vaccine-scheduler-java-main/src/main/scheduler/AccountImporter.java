@@ -0,0 +1,377 @@
+package scheduler;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.UserDao;
+import scheduler.memory.MemoryEngine;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Imports accounts from a CSV file of username,password lines, for migrating users from another system.
+// The work runs in three stages joined by bounded queues, so a slow stage holds back the ones before it
+// instead of letting work pile up in memory:
+//   1. the calling thread streams the file and cuts it into chunks of ImportChunkSize accounts,
+//      dropping malformed lines and usernames repeated in the file
+//   2. a checker thread looks up each chunk's usernames in bulk, drops the ones that already exist and
+//      hands the rest to the password hashing pool, which uses every core
+//   3. a writer thread waits for each chunk's hashes and inserts the chunk as one batch
+// Up to ImportQueueChunks chunks wait between stages. Once a chunk is committed, the line it ends on is
+// saved to <file>.checkpoint, and importing the same file again resumes after that line. The checkpoint
+// is removed when the whole file has been imported. A header line "username,password" is skipped.
+public class AccountImporter {
+
+    private static final int CHUNK_SIZE = Math.max(1, Util.getIntSetting("ImportChunkSize", 500));
+    private static final int QUEUE_CHUNKS = Math.max(1, Util.getIntSetting("ImportQueueChunks", 4));
+    private static final int MAX_USERNAME_LENGTH = 255;
+
+    // tells the next stage that no more chunks are coming
+    private static final Chunk END = new Chunk(0);
+
+    private final Path file;
+    private final Path checkpoint;
+    private final boolean caregivers;
+    private final BlockingQueue<Chunk> parsed = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+    private final BlockingQueue<Chunk> hashed = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+    private volatile Exception failure = null;
+
+    // counters and stage timings, each written by one stage only
+    private long resumedAfter;
+    private int invalid;
+    private int repeated;
+    private volatile int existing;
+    private volatile int takenMeanwhile;
+    private volatile int imported;
+    private volatile long checkNanos;
+    // time spent blocked on a full hashing pool, then waiting for the last hashes of each chunk
+    private volatile long submitNanos;
+    private volatile long hashWaitNanos;
+    private volatile long insertNanos;
+    private long parseNanos;
+    private long elapsedNanos;
+
+    public AccountImporter(Path file, boolean caregivers) {
+        this.file = file;
+        this.checkpoint = Paths.get(file + ".checkpoint");
+        this.caregivers = caregivers;
+    }
+
+    // Getters
+    // the line a previous, interrupted import had committed up to, 0 if this one started from the top
+    public long getResumedAfter() {
+        return resumedAfter;
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    // usernames that were already taken
+    public int getExisting() {
+        return existing + takenMeanwhile;
+    }
+
+    // lines that weren't username,password with both parts present
+    public int getInvalid() {
+        return invalid;
+    }
+
+    // usernames that appeared earlier in the same file
+    public int getRepeated() {
+        return repeated;
+    }
+
+    // A summary of how long the import took and where the time went
+    public String getReport() {
+        double seconds = elapsedNanos / 1e9;
+        return String.format("%d accounts in %.1fs (%.0f accounts/s); parse %.1fs, duplicate check %.1fs, " +
+                        "waiting for hashes %.1fs, insert %.1fs", imported, seconds,
+                seconds > 0 ? imported / seconds : 0.0, parseNanos / 1e9, checkNanos / 1e9,
+                (submitNanos + hashWaitNanos) / 1e9, insertNanos / 1e9);
+    }
+
+    // Runs the import to the end of the file. Throws if the file can't be read or an insert fails, in
+    // which case the checkpoint keeps what was committed so far.
+    public AccountImporter run() throws IOException, SQLException {
+        long start = System.nanoTime();
+        resumedAfter = readCheckpoint();
+        Thread checker = new Thread(this::check, "import-checker");
+        Thread writer = new Thread(this::write, "import-writer");
+        checker.start();
+        writer.start();
+        try {
+            parse();
+        } finally {
+            join(checker);
+            join(writer);
+            elapsedNanos = System.nanoTime() - start;
+        }
+        if (failure instanceof SQLException) {
+            throw (SQLException) failure;
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+        Files.deleteIfExists(checkpoint);
+        return this;
+    }
+
+    // Stage 1: stream the file into chunks
+    private void parse() throws IOException {
+        Set<String> seen = new HashSet<>();
+        Chunk chunk = new Chunk(CHUNK_SIZE);
+        long lineNumber = 0;
+        long start = System.nanoTime();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null && failure == null) {
+                lineNumber++;
+                line = line.trim();
+                if (lineNumber <= resumedAfter || line.isEmpty() || line.startsWith("#") ||
+                        (lineNumber == 1 && line.equalsIgnoreCase("username,password"))) {
+                    continue;
+                }
+                String[] fields = line.split(",", 2);
+                String username = fields[0].trim();
+                if (fields.length != 2 || username.isEmpty() || fields[1].isEmpty() ||
+                        username.length() > MAX_USERNAME_LENGTH) {
+                    invalid++;
+                    continue;
+                }
+                if (!seen.add(username)) {
+                    repeated++;
+                    continue;
+                }
+                chunk.usernames.add(username);
+                chunk.passwords.add(fields[1]);
+                chunk.lastLine = lineNumber;
+                if (chunk.usernames.size() == CHUNK_SIZE) {
+                    parseNanos += System.nanoTime() - start;
+                    put(parsed, chunk);
+                    start = System.nanoTime();
+                    chunk = new Chunk(CHUNK_SIZE);
+                }
+            }
+            parseNanos += System.nanoTime() - start;
+            if (!chunk.usernames.isEmpty()) {
+                put(parsed, chunk);
+            }
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        } finally {
+            put(parsed, END);
+        }
+    }
+
+    // Stage 2: drop taken usernames and start hashing the rest
+    private void check() {
+        try {
+            for (Chunk chunk = parsed.take(); chunk != END; chunk = parsed.take()) {
+                if (failure != null) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                Set<String> taken = existing(chunk.usernames);
+                checkNanos += System.nanoTime() - start;
+                existing += taken.size();
+                start = System.nanoTime();
+                for (int i = 0; i < chunk.usernames.size(); i++) {
+                    if (taken.contains(chunk.usernames.get(i))) {
+                        continue;
+                    }
+                    byte[] salt = Util.generateSalt();
+                    // blocks while the hashing pool is full, which holds this stage back
+                    chunk.hashes.put(chunk.usernames.get(i), Util.generateHashAsync(chunk.passwords.get(i), salt)
+                            .thenApply(hash -> new UserDao.Credentials(salt, hash)));
+                }
+                submitNanos += System.nanoTime() - start;
+                chunk.passwords.clear();
+                put(hashed, chunk);
+            }
+        } catch (SQLException | RuntimeException e) {
+            fail(e);
+            drain(parsed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            put(hashed, END);
+        }
+    }
+
+    // Stage 3: insert each chunk once its hashes are done and record the checkpoint
+    private void write() {
+        try {
+            for (Chunk chunk = hashed.take(); chunk != END; chunk = hashed.take()) {
+                if (failure != null) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                Map<String, UserDao.Credentials> accounts = new LinkedHashMap<>();
+                for (Map.Entry<String, CompletableFuture<UserDao.Credentials>> hash : chunk.hashes.entrySet()) {
+                    accounts.put(hash.getKey(), hash.getValue().join());
+                }
+                long hashedAt = System.nanoTime();
+                hashWaitNanos += hashedAt - start;
+                int inserted = accounts.isEmpty() ? 0 : insert(accounts);
+                takenMeanwhile += accounts.size() - inserted;
+                imported += inserted;
+                writeCheckpoint(chunk.lastLine);
+                insertNanos += System.nanoTime() - hashedAt;
+            }
+        } catch (SQLException | IOException | RuntimeException e) {
+            fail(e);
+            drain(hashed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Set<String> existing(List<String> usernames) throws SQLException {
+        if (MemoryEngine.isEnabled()) {
+            Set<String> taken = new HashSet<>();
+            for (String username : usernames) {
+                if (MemoryEngine.get().getCredentials(caregivers, username) != null) {
+                    taken.add(username);
+                }
+            }
+            return taken;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            return users(cm).getExisting(usernames);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Returns how many of the accounts were inserted
+    private int insert(Map<String, UserDao.Credentials> accounts) throws SQLException {
+        if (MemoryEngine.isEnabled()) {
+            int inserted = 0;
+            for (Map.Entry<String, UserDao.Credentials> account : accounts.entrySet()) {
+                try {
+                    if (caregivers) {
+                        MemoryEngine.get().addCaregiver(account.getKey(), account.getValue().getSalt(),
+                                account.getValue().getHash());
+                    } else {
+                        MemoryEngine.get().addPatient(account.getKey(), account.getValue().getSalt(),
+                                account.getValue().getHash());
+                    }
+                    inserted++;
+                } catch (SQLIntegrityConstraintViolationException e) {
+                    // taken since the duplicate check
+                }
+            }
+            return inserted;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            cm.beginTransaction();
+            int inserted = users(cm).insertIfAbsent(accounts).size();
+            cm.commit();
+            return inserted;
+        } catch (SQLException e) {
+            cm.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private UserDao users(ConnectionManager cm) {
+        return caregivers ? UserDao.caregivers(cm) : UserDao.patients(cm);
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(Files.readString(checkpoint).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Unreadable checkpoint " + checkpoint, e);
+        }
+    }
+
+    // Written to a temporary file and moved into place, so a crash leaves the old or the new line
+    private void writeCheckpoint(long line) throws IOException {
+        Path temporary = Paths.get(checkpoint + ".tmp");
+        Files.writeString(temporary, Long.toString(line));
+        Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void fail(Exception e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    // Wait for room in the next stage's queue. Gives up if a later stage has failed and stopped taking.
+    private void put(BlockingQueue<Chunk> queue, Chunk chunk) {
+        try {
+            while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                if (failure != null && chunk != END) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Keep taking from a queue after a failure, so the stage feeding it can finish
+    private static void drain(BlockingQueue<Chunk> queue) {
+        try {
+            while (queue.take() != END) {
+                // discard
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // A run of consecutive accounts from the file
+    private static class Chunk {
+        private final List<String> usernames;
+        private final List<String> passwords;
+        private final Map<String, CompletableFuture<UserDao.Credentials>> hashes = new LinkedHashMap<>();
+        // the file line the chunk ends on
+        private long lastLine;
+
+        Chunk(int size) {
+            this.usernames = new ArrayList<>(size);
+            this.passwords = new ArrayList<>(size);
+        }
+    }
+}
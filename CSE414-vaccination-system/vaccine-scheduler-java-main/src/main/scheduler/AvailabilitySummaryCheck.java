@@ -0,0 +1,57 @@
+package scheduler;
+
+import scheduler.db.AvailabilitySummaryDao;
+import scheduler.db.ConnectionManager;
+
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.List;
+
+// Compares the AvailabilitySummary table with the Availabilities it summarises and, if asked,
+// rebuilds it from scratch. Changes still queued in a running scheduler show up as mismatches and would
+// be counted twice after a rebuild, so run it while the schedulers are stopped.
+public class AvailabilitySummaryCheck {
+
+    // how many mismatched dates to print before only counting them
+    private static final int MAX_REPORTED = 50;
+
+    private final PrintStream out;
+
+    public AvailabilitySummaryCheck(PrintStream out) {
+        this.out = out;
+    }
+
+    // Returns true if the summary is consistent, or was rebuilt
+    public boolean run(boolean rebuild) {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            AvailabilitySummaryDao summary = new AvailabilitySummaryDao(cm);
+            List<AvailabilitySummaryDao.Mismatch> mismatches = summary.getMismatches();
+            for (int i = 0; i < Math.min(mismatches.size(), MAX_REPORTED); i++) {
+                AvailabilitySummaryDao.Mismatch mismatch = mismatches.get(i);
+                out.println(mismatch.getTime() + ": summary " + mismatch.getSummarized() + ", actual " +
+                        mismatch.getActual());
+            }
+            out.println("Availability summary: " + mismatches.size() + " mismatched dates");
+            if (!rebuild) {
+                return mismatches.isEmpty();
+            }
+            cm.beginTransaction();
+            int dates = summary.rebuild();
+            cm.commit();
+            out.println("Availability summary rebuilt: " + dates + " dates");
+            return true;
+        } catch (SQLException e) {
+            try {
+                cm.rollback();
+            } catch (SQLException ignored) {
+                // the connection is closed below either way
+            }
+            out.println("Error occurred when checking the availability summary: " + e.getMessage());
+            return false;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
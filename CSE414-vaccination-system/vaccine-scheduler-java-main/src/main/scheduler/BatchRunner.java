@@ -0,0 +1,114 @@
+package scheduler;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+// Runs a command file non-interactively, one command per line, as if it were typed at the prompt.
+// The file is streamed, so it can be arbitrarily long. Runs of consecutive create_patient,
+// create_caregiver, upload_availability and add_doses lines are started together so their inserts
+// share batched writes. Every other command waits for those to finish first, which keeps the
+// results identical to running the file line by line. Blank lines and lines starting with # are
+// skipped. Output is buffered and ends with per-command success and failure counts.
+public class BatchRunner {
+
+    // how many deferred commands may be in flight before we wait for the oldest ones
+    private static final int MAX_IN_FLIGHT = 4096;
+
+    private final Path file;
+    private final PrintStream out;
+    private final Scheduler scheduler;
+    private final Deque<Deferred> inFlight = new ArrayDeque<>();
+    private final Map<String, int[]> outcomes = new TreeMap<>();
+
+    public BatchRunner(Path file) {
+        this(file, new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16),
+                false, StandardCharsets.UTF_8));
+    }
+
+    public BatchRunner(Path file, PrintStream out) {
+        this.file = file;
+        this.out = out;
+        this.scheduler = new Scheduler(out);
+    }
+
+    public void run() throws IOException {
+        long start = System.nanoTime();
+        long commands = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                commands++;
+                String operation = line.split(" ")[0];
+                CompletableFuture<Scheduler.Response> response = scheduler.submit(line);
+                if (response != null) {
+                    inFlight.addLast(new Deferred(operation, response));
+                    if (inFlight.size() >= MAX_IN_FLIGHT) {
+                        drain(MAX_IN_FLIGHT / 2);
+                    }
+                    continue;
+                }
+                // commands like login change the session, so everything before them has to finish
+                drain(0);
+                boolean open = scheduler.execute(line);
+                record(operation, scheduler.lastCommandSucceeded());
+                if (!open) {
+                    break;
+                }
+            }
+        } finally {
+            drain(0);
+            report(commands, (System.nanoTime() - start) / 1e9);
+            out.flush();
+        }
+    }
+
+    // Print the results of deferred commands, oldest first, until at most keep are left in flight
+    private void drain(int keep) {
+        while (inFlight.size() > keep) {
+            Deferred deferred = inFlight.removeFirst();
+            Scheduler.Response response = deferred.response.join();
+            out.println(response.getMessage());
+            record(deferred.operation, response.isSucceeded());
+        }
+    }
+
+    private void record(String operation, boolean succeeded) {
+        outcomes.computeIfAbsent(operation, k -> new int[2])[succeeded ? 0 : 1]++;
+    }
+
+    private void report(long commands, double seconds) {
+        out.println();
+        out.printf("%-28s %10s %10s%n", "command", "succeeded", "failed");
+        for (Map.Entry<String, int[]> entry : outcomes.entrySet()) {
+            out.printf("%-28s %10d %10d%n", entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+        }
+        out.printf("%d commands in %.2fs (%.1f commands/s)%n", commands, seconds,
+                commands / Math.max(seconds, 1e-9));
+    }
+
+    private static class Deferred {
+        private final String operation;
+        private final CompletableFuture<Scheduler.Response> response;
+
+        private Deferred(String operation, CompletableFuture<Scheduler.Response> response) {
+            this.operation = operation;
+            this.response = response;
+        }
+    }
+}
@@ -1,47 +1,108 @@
 package scheduler;
 
+import scheduler.db.AppointmentDao;
+import scheduler.db.AvailabilityDao;
+import scheduler.db.AvailabilitySummaryDao;
+import scheduler.db.AvailabilitySummaryWriter;
 import scheduler.db.ConnectionManager;
+import scheduler.db.DatabaseExecutor;
+import scheduler.db.VaccineDao;
+import scheduler.events.EventBus;
+import scheduler.memory.MemoryEngine;
+import scheduler.model.Appointment;
+import scheduler.model.AvailabilityIndex;
 import scheduler.model.Caregiver;
 import scheduler.model.Patient;
+import scheduler.model.SessionTable;
 import scheduler.model.Vaccine;
+import scheduler.model.VaccineCache;
+import scheduler.model.Waitlist;
+import scheduler.server.SchedulerServer;
+import scheduler.util.Metrics;
 import scheduler.util.Util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.sql.Date;
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class Scheduler {
 
     // objects to keep track of the currently logged-in user
     // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    //       since only one user can be logged-in at a time in a session
+    private Caregiver currentCaregiver = null;
+    private Patient currentPatient = null;
+    // the session token handed out at login, which resume accepts instead of a password
+    private String currentToken = null;
+
+    // where this session's command output goes, the console or a network client
+    private final PrintStream out;
+    // whether the last command succeeded, for batch mode's report
+    private boolean succeeded = true;
+
+    // how many appointments show_appointments reads per query
+    private static final int SHOW_APPOINTMENTS_PAGE_SIZE = 500;
+
+    // every command execute() understands
+    private static final Set<String> COMMANDS = Set.of("create_patient", "create_caregiver", "login_patient",
+            "login_caregiver", "search_caregiver_schedule", "search_open_dates", "reserve",
+            "reserve_batch", "waitlist", "leave_waitlist", "waitlist_priority", "import_patients",
+            "import_caregivers", "upload_availability", "upload_availability_range", "cancel", "cancel_date",
+            "add_doses", "show_appointments", "resume", "whoami", "logout", "stats", "quit");
+
+    public Scheduler(PrintStream out) {
+        this.out = out;
+    }
 
     public static void main(String[] args) {
-        // printing greetings text
-        System.out.println();
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
-        System.out.println("> logout");  // TODO: implement logout (Part 2)
-        System.out.println("> quit");
-        System.out.println();
+        // scheduler --server [port] serves many sessions over TCP instead of the console
+        if (args.length >= 1 && args[0].equals("--server")) {
+            int port = args.length >= 2 ? Integer.parseInt(args[1]) : SchedulerServer.DEFAULT_PORT;
+            new SchedulerServer(port).run();
+            return;
+        }
+
+        // scheduler --batch <file> runs a command file non-interactively
+        if (args.length == 2 && args[0].equals("--batch")) {
+            startStorage();
+            try {
+                new BatchRunner(Paths.get(args[1])).run();
+            } catch (IOException e) {
+                System.out.println("Failed to read " + args[1] + ": " + e.getMessage());
+            } finally {
+                stopStorage();
+            }
+            return;
+        }
+
+        // scheduler --check-summary [--rebuild] verifies the availability summary against Availabilities
+        if (args.length >= 1 && args[0].equals("--check-summary")) {
+            boolean rebuild = args.length == 2 && args[1].equals("--rebuild");
+            boolean consistent = new AvailabilitySummaryCheck(System.out).run(rebuild);
+            ConnectionManager.shutdown();
+            System.exit(consistent ? 0 : 1);
+        }
+
+        Scheduler scheduler = new Scheduler(System.out);
+        scheduler.printGreeting();
 
+        // open the pooled connections and load the availability index now so the first command doesn't wait
+        startStorage();
 
         // read input from user
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
@@ -53,146 +114,244 @@ public class Scheduler {
             } catch (IOException e) {
                 System.out.println("Please try again!");
             }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
-                continue;
-            }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
+            // treat the end of the input like quit
+            if (!scheduler.execute(response == null ? "quit" : response)) {
+                stopStorage();
                 return;
-            } else {
-                System.out.println("Invalid operation name!");
             }
         }
     }
 
-    private static void createPatient(String[] tokens) {
-        if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+    // Open the pooled connections and load the availability index, or recover the in-memory engine
+    // with Storage=memory, and start publishing change events
+    public static void startStorage() {
+        EventBus.start();
+        if (MemoryEngine.isEnabled()) {
+            MemoryEngine.get();
             return;
         }
-        String username = tokens[1];
-        String password = tokens[2];
+        ConnectionManager.warmUp();
+        AvailabilityIndex.warmUp();
+    }
 
-        if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again!");
+    // Close the pooled connections, or snapshot and close the in-memory engine
+    public static void stopStorage() {
+        // let queued waitlist promotions finish against the open storage
+        Waitlist.awaitIdle();
+        AvailabilitySummaryWriter.awaitIdle();
+        EventBus.shutdown();
+        if (MemoryEngine.isEnabled()) {
+            MemoryEngine.shutdown();
             return;
         }
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        ConnectionManager.shutdown();
+    }
 
+    public void printGreeting() {
+        // printing greetings text
+        out.println();
+        out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        out.println("*** Please enter one of the following commands ***");
+        out.println("> create_patient <username> <password>");
+        out.println("> create_caregiver <username> <password>");
+        out.println("> login_patient <username> <password>");
+        out.println("> login_caregiver <username> <password>");
+        out.println("> search_caregiver_schedule <date>");
+        out.println("> search_open_dates <from> <to>");
+        out.println("> reserve <date> <vaccine>");
+        out.println("> reserve_batch <date> <vaccine> <file of patient usernames>");
+        out.println("> waitlist <date> <vaccine>");
+        out.println("> leave_waitlist <date> <vaccine>");
+        out.println("> waitlist_priority <patient> <date> <vaccine> <priority>");
+        out.println("> import_patients <csv file of username,password>");
+        out.println("> import_caregivers <csv file of username,password>");
+        out.println("> upload_availability <date>");
+        out.println("> upload_availability_range <start> <end> [weekdays]");
+        out.println("> cancel <appointment_id>");
+        out.println("> cancel_date <date>");
+        out.println("> add_doses <vaccine> <number>");
+        out.println("> show_appointments [--after <id>] [--limit <n>] [--from <date> --to <date>]");
+        out.println("> resume <session_token>");
+        out.println("> whoami");
+        out.println("> logout");
+        out.println("> stats [on|off|reset]");
+        out.println("> quit");
+        out.println();
+    }
+
+    // Run one command line for this session, returns false once the session should end
+    public boolean execute(String response) {
+        long start = Metrics.start();
         try {
-            Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
+            return dispatch(response);
+        } finally {
+            if (start != 0) {
+                String operation = response.trim().split(" ")[0];
+                // don't let mistyped commands create a metric each
+                Metrics.record("command:" + (COMMANDS.contains(operation) ? operation : "invalid"), start, !succeeded);
+            }
+        }
+    }
 
-            patient.saveToDB();
-            System.out.println("Created user " + username);
-        } catch (SQLException e) {
-            System.out.println("Failed to create user.");
-            e.printStackTrace();
+    private boolean dispatch(String response) {
+        succeeded = true;
+        // split the user input by spaces
+        String[] tokens = response.trim().split(" ");
+        // check if input exists
+        if (tokens.length == 0) {
+            fail("Please try again!");
+            return true;
+        }
+        // determine which operation to perform
+        String operation = tokens[0];
+        if (operation.equals("create_patient")) {
+            createPatient(tokens);
+        } else if (operation.equals("create_caregiver")) {
+            createCaregiver(tokens);
+        } else if (operation.equals("login_patient")) {
+            loginPatient(tokens);
+        } else if (operation.equals("login_caregiver")) {
+            loginCaregiver(tokens);
+        } else if (operation.equals("search_caregiver_schedule")) {
+            searchCaregiverSchedule(tokens);
+        } else if (operation.equals("search_open_dates")) {
+            searchOpenDates(tokens);
+        } else if (operation.equals("reserve")) {
+            reserve(tokens);
+        } else if (operation.equals("reserve_batch")) {
+            reserveBatch(tokens);
+        } else if (operation.equals("waitlist")) {
+            joinWaitlist(tokens);
+        } else if (operation.equals("leave_waitlist")) {
+            leaveWaitlist(tokens);
+        } else if (operation.equals("waitlist_priority")) {
+            setWaitlistPriority(tokens);
+        } else if (operation.equals("import_patients") || operation.equals("import_caregivers")) {
+            importAccounts(tokens);
+        } else if (operation.equals("upload_availability")) {
+            uploadAvailability(tokens);
+        } else if (operation.equals("upload_availability_range")) {
+            uploadAvailabilityRange(tokens);
+        } else if (operation.equals("cancel")) {
+            cancel(tokens);
+        } else if (operation.equals("cancel_date")) {
+            cancelDate(tokens);
+        } else if (operation.equals("add_doses")) {
+            addDoses(tokens);
+        } else if (operation.equals("show_appointments")) {
+            showAppointments(tokens);
+        } else if (operation.equals("resume")) {
+            resume(tokens);
+        } else if (operation.equals("whoami")) {
+            whoami(tokens);
+        } else if (operation.equals("logout")) {
+            logout(tokens);
+        } else if (operation.equals("stats")) {
+            stats(tokens);
+        } else if (operation.equals("quit")) {
+            out.println("Bye!");
+            return false;
+        } else {
+            fail("Invalid operation name!");
         }
+        return true;
     }
 
-    private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    // Whether the last command run with execute() did what was asked
+    public boolean lastCommandSucceeded() {
+        return succeeded;
+    }
 
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
-        try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            return resultSet.isBeforeFirst();
-        } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+    // Validate a command and start its database work without waiting for it, so consecutive
+    // commands can share batched writes. The future completes with the command's output.
+    // Returns null for commands that have to run in order through execute().
+    public CompletableFuture<Response> submit(String line) {
+        String[] tokens = line.trim().split(" ");
+        switch (tokens[0]) {
+            case "create_patient":
+                return createPatientAsync(tokens);
+            case "create_caregiver":
+                return createCaregiverAsync(tokens);
+            case "upload_availability":
+                return uploadAvailabilityAsync(tokens);
+            case "add_doses":
+                return addDosesAsync(tokens);
+            default:
+                return null;
         }
-        return true;
     }
 
-    private static void createCaregiver(String[] tokens) {
+    private void respond(CompletableFuture<Response> response) {
+        Response r = response.join();
+        if (r.isSucceeded()) {
+            out.println(r.getMessage());
+        } else {
+            fail(r.getMessage());
+        }
+    }
+
+    private void fail(String message) {
+        out.println(message);
+        succeeded = false;
+    }
+
+    private void createPatient(String[] tokens) {
+        respond(createPatientAsync(tokens));
+    }
+
+    private CompletableFuture<Response> createPatientAsync(String[] tokens) {
+        if (tokens.length != 3) {
+            return Response.failed("Failed to create user.");
+        }
+        String username = tokens[1];
+        String password = tokens[2];
+
+        byte[] salt = Util.generateSalt();
+        // a taken username shows up as a primary key violation on insert, saving a lookup per user
+        return Util.generateHashAsync(password, salt)
+                .thenCompose(hash -> new Patient.PatientBuilder(username, salt, hash).build().saveToDBAsync())
+                .handle((count, e) -> createdUser(username, e));
+    }
+
+    private void createCaregiver(String[] tokens) {
+        respond(createCaregiverAsync(tokens));
+    }
+
+    private CompletableFuture<Response> createCaregiverAsync(String[] tokens) {
         // create_caregiver <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
-            return;
+            return Response.failed("Failed to create user.");
         }
         String username = tokens[1];
         String password = tokens[2];
-        // check 2: check if the username has been taken already
-        if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
-            return;
-        }
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
-        // create the caregiver
-        try {
-            Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build(); 
-            // save to caregiver information to our database
-            caregiver.saveToDB();
-            System.out.println("Created user " + username);
-        } catch (SQLException e) {
-            System.out.println("Failed to create user.");
-            e.printStackTrace();
-        }
+        // create the caregiver and save its information to our database
+        // check 2: a taken username shows up as a primary key violation on insert
+        return Util.generateHashAsync(password, salt)
+                .thenCompose(hash -> new Caregiver.CaregiverBuilder(username, salt, hash).build().saveToDBAsync())
+                .handle((count, e) -> createdUser(username, e));
     }
 
-    private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
-        try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
-        } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+    private static Response createdUser(String username, Throwable e) {
+        if (e == null) {
+            return new Response(true, "Created user " + username);
         }
-        return true;
+        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+        if (cause instanceof SQLException && ConnectionManager.isDuplicateKey((SQLException) cause)) {
+            return new Response(false, "Username taken, try again!");
+        }
+        cause.printStackTrace();
+        return new Response(false, "Failed to create user.");
     }
 
-    private static void loginPatient(String[] tokens) {
+    private void loginPatient(String[] tokens) {
         if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+            fail("User already logged in.");
             return;
         }
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            fail("Login failed.");
             return;
         }
         String username = tokens[1];
@@ -202,27 +361,29 @@ public class Scheduler {
         try {
             patient = new Patient.PatientGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            fail("Login failed.");
             e.printStackTrace();
         }
         if (patient == null) {
-            System.out.println("Login failed.");
+            fail("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
+            out.println("Logged in as: " + username);
             currentPatient = patient;
+            currentToken = SessionTable.open(username, false);
+            out.println("Session token: " + currentToken);
         }
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private void loginCaregiver(String[] tokens) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
         if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+            fail("User already logged in.");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            fail("Login failed.");
             return;
         }
         String username = tokens[1];
@@ -232,322 +393,789 @@ public class Scheduler {
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            fail("Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Login failed.");
+            fail("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
+            out.println("Logged in as: " + username);
             currentCaregiver = caregiver;
+            currentToken = SessionTable.open(username, true);
+            out.println("Session token: " + currentToken);
         }
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) {
+    private void searchCaregiverSchedule(String[] tokens) {
         // search_caregiver_schedule <date>
         // check 1: check if currently logged-in
         if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+            fail("Please login first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
         if (tokens.length != 2) {
-            System.out.println("Please try again!");
+            fail("Please try again!");
+            return;
+        }
+        Date date;
+        try {
+            date = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
+            return;
+        }
+        if (MemoryEngine.isEnabled()) {
+            MemoryEngine memory = MemoryEngine.get();
+            printSchedule(memory.getCaregivers(date), memory.getInStock());
             return;
         }
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        cm.createConnection();
 
-        String date = tokens[1];
-        String selectCaregivers = "SELECT A.Username, V.Name, V.Doses FROM Availabilities AS A, " +
-                                  "Vaccines AS V WHERE A.Time = ? AND V.Doses > 0 ORDER BY A.Username";
+        // caregivers and vaccines are independent, so list them separately instead of joining them
         try {
-            PreparedStatement selectStatement = con.prepareStatement(selectCaregivers);
-            selectStatement.setString(1, date);
-            ResultSet caregiverResultSet = selectStatement.executeQuery();
-            printResultSet(caregiverResultSet, 3);
+            printSchedule(new AvailabilityDao(cm).getCaregivers(date), new VaccineDao(cm).getInStock());
         } catch (SQLException e) {
-            System.out.println("Please try again!");
+            fail("Please try again!");
         } finally {
             cm.closeConnection();
         }
     }
 
-    private static void reserve(String[] tokens) {
+    private void printSchedule(List<String> caregivers, Map<String, Integer> vaccines) {
+        out.println("Available caregivers:");
+        for (String caregiver : caregivers) {
+            out.println(caregiver);
+        }
+        out.println("Available vaccines:");
+        for (Map.Entry<String, Integer> vaccine : vaccines.entrySet()) {
+            out.println(vaccine.getKey() + " " + vaccine.getValue());
+        }
+    }
+
+    private void searchOpenDates(String[] tokens) {
+        // search_open_dates <from> <to>
+        // check 1: check if currently logged-in
+        if (currentCaregiver == null && currentPatient == null) {
+            fail("Please login first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            fail("Please try again!");
+            return;
+        }
+        Date from;
+        Date to;
+        try {
+            from = Date.valueOf(tokens[1]);
+            to = Date.valueOf(tokens[2]);
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
+            return;
+        }
+        if (to.before(from)) {
+            fail("Please enter a valid date range!");
+            return;
+        }
+        if (MemoryEngine.isEnabled()) {
+            printOpenDates(MemoryEngine.get().getOpenDates(from, to));
+            return;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            // answered from the per-date summary rather than by counting Availabilities
+            printOpenDates(new AvailabilitySummaryDao(cm).getOpenDates(from, to));
+        } catch (SQLException e) {
+            fail("Please try again!");
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private void printOpenDates(Map<Date, Integer> dates) {
+        out.println("Open dates:");
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<Date, Integer> date : dates.entrySet()) {
+            text.append(date.getKey()).append(' ').append(date.getValue()).append(System.lineSeparator());
+        }
+        out.print(text);
+    }
+
+    private void reserve(String[] tokens) {
         // TODO: Part 2
         // reserve <date> vaccine
         // check 1: check if currently logged-in
         if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+            fail("Please login first!");
             return;
         }
         // check 2: check if the current logged-in user is a patient
         if (currentPatient == null) {
-            System.out.println("Please login as a patient!");
+            fail("Please login as a patient!");
             return;
         }
         // check 3: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            fail("Please try again!");
             return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
         String date = tokens[1];
         String vaccineName = tokens[2];
+        try {
+            // claim a caregiver, take a dose and book the appointment in one transaction
+            Date d = Date.valueOf(date);
+            Appointment appointment = DatabaseExecutor.await(new Appointment.AppointmentReserver(
+                    currentPatient.getUsername(), vaccineName, d).reserveAsync());
+            // print out the appointment information, including appointment id and caregiver name
+            out.println("Appointment ID: " + appointment.getAppointmentId() +
+                               ", Caregiver username: " + appointment.getCaregiverName());
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
+        } catch (IllegalStateException e) {
+            // check 4 and 5: no available caregiver for that date, or not enough vaccine doses
+            fail(e.getMessage());
+            out.println("To be booked as soon as there is room: waitlist " + date + " " + vaccineName);
+        } catch (SQLException e) {
+            fail("Please try again!");
+        }
+    }
 
-        String checkAvailableCaregiver = "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username";
-        String checkAvailableDose = "SELECT * FROM Vaccines WHERE Name = ? AND Doses >= 0";
-        String addAppointment = "INSERT INTO Appointments VALUES (?, ?, ?, ?)";
-        String selectAppointment = "SELECT Appointment_id, Caregiver_name FROM Appointments WHERE " +
-                                    "Time = ? AND Caregiver_name = ?";
-        String removeAvailability = "DELETE FROM Availabilities WHERE Time = ? AND Username = ?";
+    private void joinWaitlist(String[] tokens) {
+        // waitlist <date> <vaccine>
+        // check 1: only a patient can wait for an appointment
+        if (currentPatient == null) {
+            fail("Please login as a patient!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            fail("Please try again!");
+            return;
+        }
+        String vaccineName = tokens[2];
         try {
-            PreparedStatement checkAvailableCaregiverStatement = con.prepareStatement(checkAvailableCaregiver);
-            checkAvailableCaregiverStatement.setString(1, date);
-            ResultSet availableCaregivers = checkAvailableCaregiverStatement.executeQuery();
-            // check 4: check if there are available caregivers for that date
-            if (!availableCaregivers.isBeforeFirst()) {
-                System.out.println("No Caregiver is available!");
+            Date d = Date.valueOf(tokens[1]);
+            if (new Vaccine.VaccineGetter(vaccineName).get() == null) {
+                fail("Vaccine " + vaccineName + " does not exist!");
                 return;
             }
-            // check 5: check if there are enough vaccine doses
-            PreparedStatement checkAvailableDoseStatement = con.prepareStatement(checkAvailableDose);
-            checkAvailableDoseStatement.setString(1, vaccineName);
-            ResultSet availableDoses = checkAvailableDoseStatement.executeQuery();
-            if (!availableDoses.isBeforeFirst()) {
-                System.out.println("Not enough available doses!");
+            if (!Waitlist.join(currentPatient.getUsername(), vaccineName, d)) {
+                fail("You are already on the waitlist for " + vaccineName + " on " + d + "!");
                 return;
             }
+            // promotion books the patient in the background, show_appointments lists it once it has
+            out.println("Added to the waitlist for " + vaccineName + " on " + d + ", " +
+                    Waitlist.countWaiting(d, vaccineName) + " waiting");
+        } catch (IllegalStateException e) {
+            fail(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
+        } catch (SQLException e) {
+            fail("Please try again!");
+        }
+    }
 
-            // upload the appointment
-            availableCaregivers.next();
-            String caregiverName = availableCaregivers.getString(1);
-            PreparedStatement addAppointmentStatement = con.prepareStatement(addAppointment);
-            addAppointmentStatement.setString(1, currentPatient.getUsername());
-            addAppointmentStatement.setString(2, caregiverName);
-            addAppointmentStatement.setString(3, vaccineName);
-            addAppointmentStatement.setString(4, date);
-            addAppointmentStatement.executeUpdate();
+    private void leaveWaitlist(String[] tokens) {
+        // leave_waitlist <date> <vaccine>
+        if (currentPatient == null) {
+            fail("Please login as a patient!");
+            return;
+        }
+        if (tokens.length != 3) {
+            fail("Please try again!");
+            return;
+        }
+        try {
+            Date d = Date.valueOf(tokens[1]);
+            if (!Waitlist.leave(currentPatient.getUsername(), tokens[2], d)) {
+                fail("You are not on the waitlist for " + tokens[2] + " on " + d + "!");
+                return;
+            }
+            out.println("Left the waitlist for " + tokens[2] + " on " + d);
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
+        } catch (SQLException e) {
+            fail("Please try again!");
+        }
+    }
 
-            // print out the appointment information, including appointment id and caregiver name
-            PreparedStatement selectAppointmentStatement = con.prepareStatement(selectAppointment);
-            selectAppointmentStatement.setString(1, date);
-            selectAppointmentStatement.setString(2, caregiverName);
-            ResultSet appointment = selectAppointmentStatement.executeQuery();
-            appointment.next();
-            System.out.println("Appointment ID: " + appointment.getString(1) +
-                               ", Caregiver username: " + appointment.getString(2));
-
-            // remove availability for the selected caregiver
-            PreparedStatement removeAvailabilityStatement = con.prepareStatement(removeAvailability);
-            removeAvailabilityStatement.setString(1, date);
-            removeAvailabilityStatement.setString(2, caregiverName);
-            removeAvailabilityStatement.executeUpdate();
-
-            // decrease vaccine doses by 1
-            Vaccine vaccine = new Vaccine.VaccineGetter(vaccineName).get();
-            vaccine.decreaseAvailableDoses(1);
+    private void setWaitlistPriority(String[] tokens) {
+        // waitlist_priority <patient> <date> <vaccine> <priority>
+        // check 1: clinic staff decide who goes first, so the current logged-in user must be a caregiver
+        if (currentCaregiver == null) {
+            fail("Please login as a caregiver first!");
+            return;
+        }
+        if (tokens.length != 5) {
+            fail("Please try again!");
+            return;
+        }
+        int priority;
+        try {
+            priority = Integer.parseInt(tokens[4]);
+        } catch (NumberFormatException e) {
+            fail("Please try again!");
+            return;
+        }
+        try {
+            Date d = Date.valueOf(tokens[2]);
+            if (!Waitlist.setPriority(tokens[1], tokens[3], d, priority)) {
+                fail(tokens[1] + " is not on the waitlist for " + tokens[3] + " on " + d + "!");
+                return;
+            }
+            out.println("Set the waitlist priority of " + tokens[1] + " to " + priority);
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
         } catch (SQLException e) {
-            System.out.println("Please try again!");
-        } finally {
-            cm.closeConnection();
+            fail("Please try again!");
         }
     }
 
-    private static void uploadAvailability(String[] tokens) {
-        // upload_availability <date>
-        // check 1: check if the current logged-in user is a caregiver
+    private void reserveBatch(String[] tokens) {
+        // reserve_batch <date> <vaccine> <file of patient usernames>
+        // check 1: clinic staff book groups, so the current logged-in user must be a caregiver
+        if (currentCaregiver == null) {
+            fail("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 4 to include all information (with the operation name)
+        if (tokens.length != 4) {
+            fail("Please try again!");
+            return;
+        }
+        Date d;
+        try {
+            d = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
+            return;
+        }
+        // one username per line, blank lines, # comments and repeated names are skipped
+        Set<String> patients = new LinkedHashSet<>();
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(tokens[3]), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    patients.add(line);
+                }
+            }
+        } catch (IOException e) {
+            fail("Failed to read " + tokens[3] + ": " + e.getMessage());
+            return;
+        }
+        if (patients.isEmpty()) {
+            fail("No patients in " + tokens[3] + "!");
+            return;
+        }
+        try {
+            Appointment.GroupReserver group = new Appointment.GroupReserver(new ArrayList<>(patients), tokens[2], d)
+                    .reserve();
+            StringBuilder text = new StringBuilder();
+            for (AppointmentDao.Row appointment : group.getBooked()) {
+                text.append("Appointment ID: ").append(appointment.getAppointmentId())
+                        .append(", Patient username: ").append(appointment.getPatientName())
+                        .append(", Caregiver username: ").append(appointment.getCaregiverName())
+                        .append(System.lineSeparator());
+            }
+            out.print(text);
+            out.println("Booked " + group.getBooked().size() + " of " + patients.size() + " patients");
+            if (group.getUnknownPatients() > 0) {
+                out.println("Not booked, unknown patient: " + group.getUnknownPatients());
+            }
+            if (group.getShortOfDoses() > 0) {
+                out.println("Not booked, not enough available doses: " + group.getShortOfDoses());
+            }
+            if (group.getShortOfCaregivers() > 0) {
+                out.println("Not booked, no Caregiver is available: " + group.getShortOfCaregivers());
+            }
+            if (group.getBooked().size() < patients.size()) {
+                succeeded = false;
+            }
+        } catch (IllegalStateException e) {
+            fail(e.getMessage());
+        } catch (SQLException e) {
+            fail("Please try again!");
+        }
+    }
+
+    private void importAccounts(String[] tokens) {
+        // import_patients <file> / import_caregivers <file>
+        // check 1: clinic staff run migrations, so the current logged-in user must be a caregiver
         if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+            fail("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
         if (tokens.length != 2) {
-            System.out.println("Please try again!");
+            fail("Please try again!");
+            return;
+        }
+        boolean caregivers = tokens[0].equals("import_caregivers");
+        String kind = caregivers ? "caregivers" : "patients";
+        AccountImporter importer = new AccountImporter(Paths.get(tokens[1]), caregivers);
+        try {
+            importer.run();
+        } catch (IOException e) {
+            fail("Failed to read " + tokens[1] + ": " + e.getMessage());
+            return;
+        } catch (SQLException e) {
+            // the checkpoint keeps what was committed, running the command again resumes from there
+            fail("Import stopped after " + importer.getImported() + " " + kind + ", run it again to resume!");
             return;
         }
+        if (importer.getResumedAfter() > 0) {
+            out.println("Resumed after line " + importer.getResumedAfter());
+        }
+        out.println("Imported " + importer.getImported() + " " + kind);
+        if (importer.getExisting() > 0) {
+            out.println("Skipped, username taken: " + importer.getExisting());
+        }
+        if (importer.getRepeated() > 0) {
+            out.println("Skipped, repeated in the file: " + importer.getRepeated());
+        }
+        if (importer.getInvalid() > 0) {
+            out.println("Skipped, not username,password: " + importer.getInvalid());
+        }
+        out.println(importer.getReport());
+    }
+
+    private void uploadAvailability(String[] tokens) {
+        respond(uploadAvailabilityAsync(tokens));
+    }
+
+    private CompletableFuture<Response> uploadAvailabilityAsync(String[] tokens) {
+        // upload_availability <date>
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            return Response.failed("Please login as a caregiver first!");
+        }
+        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        if (tokens.length != 2) {
+            return Response.failed("Please try again!");
+        }
         String date = tokens[1];
+        Date d;
         try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
+            d = Date.valueOf(date);
+        } catch (IllegalArgumentException e) {
+            return Response.failed("Please enter a valid date!");
+        }
+        return currentCaregiver.uploadAvailabilityAsync(d).handle((count, e) -> {
+            if (e != null) {
+                e.printStackTrace();
+                return new Response(false, "Error occurred when uploading availability");
+            }
+            return new Response(true, "Availability uploaded!");
+        });
+    }
+
+    private void uploadAvailabilityRange(String[] tokens) {
+        // upload_availability_range <start> <end> [weekdays]
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            fail("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the dates are required, the comma separated weekdays (e.g. mon,wed,fri) are optional
+        if (tokens.length != 3 && tokens.length != 4) {
+            fail("Please try again!");
+            return;
+        }
+        try {
+            Date start = Date.valueOf(tokens[1]);
+            Date end = Date.valueOf(tokens[2]);
+            if (end.before(start)) {
+                fail("Please enter a valid date range!");
+                return;
+            }
+            Set<DayOfWeek> weekdays = EnumSet.allOf(DayOfWeek.class);
+            if (tokens.length == 4) {
+                weekdays = parseWeekdays(tokens[3]);
+                if (weekdays == null) {
+                    fail("Please enter valid weekdays, e.g. mon,wed,fri!");
+                    return;
+                }
+            }
+            long startTime = System.nanoTime();
+            List<Date> dates = Caregiver.datesInRange(start, end, weekdays);
+            int inserted = currentCaregiver.uploadAvailability(dates);
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            out.println("Availability uploaded! Inserted: " + inserted + ", skipped: " + (dates.size() - inserted) +
+                    String.format(" (%.0f dates/s)", dates.size() / Math.max(seconds, 1e-9)));
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            fail("Please enter a valid date!");
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
+            fail("Error occurred when uploading availability");
             e.printStackTrace();
         }
     }
 
-    private static void cancel(String[] tokens) {
+    // parse a comma separated list of weekdays such as "mon,wed,fri", returns null if any is invalid
+    private static Set<DayOfWeek> parseWeekdays(String weekdays) {
+        Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+        for (String day : weekdays.split(",")) {
+            DayOfWeek match = null;
+            for (DayOfWeek d : DayOfWeek.values()) {
+                if (day.length() >= 3 && d.name().startsWith(day.toUpperCase())) {
+                    match = d;
+                }
+            }
+            if (match == null) {
+                return null;
+            }
+            days.add(match);
+        }
+        return days;
+    }
+
+    private void cancel(String[] tokens) {
         // TODO: Extra credit
         // cancel <appointment_id>
         // check 1: check if currently logged in
         if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+            fail("Please login first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
         if (tokens.length != 2) {
-            System.out.println("Please try again!");
+            fail("Please try again!");
             return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String appointmentID = tokens[1];
+        int appointmentID;
+        try {
+            appointmentID = Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException e) {
+            fail("Please try again!");
+            return;
+        }
 
-        String selectAppointment = "SELECT * FROM Appointments WHERE Appointment_id = ?";
-        String deleteAppointment = "DELETE FROM Appointments WHERE Appointment_id = ?";
-        String uploadAppointment = "INSERT INTO Availabilities VALUES (?, ?)";
+        boolean caregiver = currentCaregiver != null;
+        String username = caregiver ? currentCaregiver.getUsername() : currentPatient.getUsername();
         try {
-            // select the appointment
-            PreparedStatement selectAppointmentStatement = con.prepareStatement(selectAppointment);
-            selectAppointmentStatement.setString(1, appointmentID);
-            ResultSet appointment = selectAppointmentStatement.executeQuery();
-            if (!appointment.isBeforeFirst()) {
-                System.out.println("Appointment does not exist!");
-                return;
+            // delete, restore the availability and give the dose back in one transaction
+            new Appointment.AppointmentCanceller(appointmentID, username, caregiver).cancel();
+            out.println("Successfully canceled!");
+        } catch (IllegalStateException e) {
+            fail(e.getMessage());
+        } catch (SQLException e) {
+            fail("Please try again!");
+        }
+    }
+
+    private void cancelDate(String[] tokens) {
+        // cancel_date <date>
+        // check 1: only a caregiver can cancel their whole day
+        if (currentCaregiver == null) {
+            fail("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        if (tokens.length != 2) {
+            fail("Please try again!");
+            return;
+        }
+        Date d;
+        try {
+            d = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
+            return;
+        }
+        try {
+            List<AppointmentDao.Row> cancelled = new Appointment.DayCanceller(currentCaregiver.getUsername(), d)
+                    .cancel();
+            StringBuilder text = new StringBuilder();
+            for (AppointmentDao.Row appointment : cancelled) {
+                text.append("Canceled appointment ID: ").append(appointment.getAppointmentId())
+                        .append(", Patient username: ").append(appointment.getPatientName())
+                        .append(System.lineSeparator());
             }
-            appointment.next();
-
-            // record the caregiver username and date
-            String caregiverUsername = appointment.getString(3);
-            String vaccineName = appointment.getString(4);
-            String date = appointment.getString(5);
-
-            // upload availability for the caregiver and date
-            PreparedStatement uploadAvailabilityStatement = con.prepareStatement(uploadAppointment);
-            uploadAvailabilityStatement.setString(1, date);
-            uploadAvailabilityStatement.setString(2, caregiverUsername);
-            uploadAvailabilityStatement.executeUpdate();
-
-            // delete the appointment
-            PreparedStatement deleteAppointmentStatement = con.prepareStatement(deleteAppointment);
-            deleteAppointmentStatement.setString(1, appointmentID);
-            deleteAppointmentStatement.executeUpdate();
-
-            // decrease vaccine doses by 1
-            Vaccine vaccine = new Vaccine.VaccineGetter(vaccineName).get();
-            vaccine.increaseAvailableDoses(1);
-            System.out.println("Successfully canceled!");
+            out.print(text);
+            out.println("Canceled " + cancelled.size() + " appointments on " + d);
         } catch (SQLException e) {
-            System.out.println("Please try again!");
-        } finally {
-            cm.closeConnection();
+            fail("Please try again!");
         }
+    }
 
+    private void addDoses(String[] tokens) {
+        respond(addDosesAsync(tokens));
     }
 
-    private static void addDoses(String[] tokens) {
+    private CompletableFuture<Response> addDosesAsync(String[] tokens) {
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
         if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
-            return;
+            return Response.failed("Please login as a caregiver first!");
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
+            return Response.failed("Please try again!");
         }
         String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
-        Vaccine vaccine = null;
+        int doses;
         try {
-            vaccine = new Vaccine.VaccineGetter(vaccineName).get();
-        } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
-            e.printStackTrace();
+            doses = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            return Response.failed("Please try again!");
         }
-        // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
-        //          table
-        if (vaccine == null) {
-            try {
-                vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
-                vaccine.saveToDB();
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
-            }
-        } else {
-            // if the vaccine is not null, meaning that the vaccine already exists in our table
-            try {
-                vaccine.increaseAvailableDoses(doses);
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+        // check 3: the number of doses to add must be positive
+        if (doses <= 0) {
+            return Response.failed("Please enter a positive number of doses!");
+        }
+        // a single upsert creates the vaccine if it's new or adds to its doses otherwise, and is
+        // batched together with add_doses from other sessions
+        return Vaccine.applyDoseDeltaAsync(vaccineName, doses).handle((count, e) -> {
+            if (e != null) {
                 e.printStackTrace();
+                return new Response(false, "Error occurred when adding doses");
             }
-        }
-        System.out.println("Doses updated!");
+            return new Response(true, "Doses updated!");
+        });
     }
 
-    private static void showAppointments(String[] tokens) {
-        // TODO: Part 2
+    private void showAppointments(String[] tokens) {
+        // show_appointments [--after <id>] [--limit <n>] [--from <date> --to <date>]
         // check 1: check if currently logged in
         if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+            fail("Please login first!");
             return;
         }
-        // check 2: the length for tokens need to be exactly 1 without extra word
-        if (tokens.length != 1) {
-            System.out.println("Please try again!");
+        // check 2: every option needs a value
+        if (tokens.length % 2 != 1) {
+            fail("Please try again!");
+            return;
+        }
+        int afterId = 0;
+        int limit = Integer.MAX_VALUE;
+        Date from = AppointmentDao.FIRST_DATE;
+        Date to = AppointmentDao.LAST_DATE;
+        try {
+            for (int i = 1; i < tokens.length; i += 2) {
+                if (tokens[i].equals("--after")) {
+                    afterId = Integer.parseInt(tokens[i + 1]);
+                } else if (tokens[i].equals("--limit")) {
+                    limit = Integer.parseInt(tokens[i + 1]);
+                } else if (tokens[i].equals("--from")) {
+                    from = Date.valueOf(tokens[i + 1]);
+                } else if (tokens[i].equals("--to")) {
+                    to = Date.valueOf(tokens[i + 1]);
+                } else {
+                    fail("Please try again!");
+                    return;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // also covers NumberFormatException
+            fail("Please try again!");
+            return;
+        }
+        if (limit <= 0) {
+            fail("Please try again!");
             return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectAppointments = "";
-        String currentUsername = "";
-        if (currentCaregiver != null) {
-            selectAppointments = "SELECT Appointment_id, Vaccine_name, Time, Patient_name " +
-                    "FROM Appointments WHERE Caregiver_name = ? ORDER BY Appointment_id";
-            currentUsername = currentCaregiver.getUsername();
-        } else {
-            selectAppointments = "SELECT Appointment_id, Vaccine_name, Time, Caregiver_name " +
-                    "FROM Appointments WHERE Patient_name = ? ORDER BY Appointment_id";
-            currentUsername = currentPatient.getUsername();
+        Date first = from;
+        Date last = to;
+        if (MemoryEngine.isEnabled()) {
+            boolean caregiver = currentCaregiver != null;
+            String username = caregiver ? currentCaregiver.getUsername() : currentPatient.getUsername();
+            try {
+                printAppointments((after, size) -> MemoryEngine.get().getPage(caregiver, username, after, size,
+                        first, last), afterId, limit);
+            } catch (SQLException e) {
+                fail("Please try again!");
+            }
+            return;
         }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
         try {
-            PreparedStatement selectAppointmentsStatement = con.prepareStatement(selectAppointments);
-            selectAppointmentsStatement.setString(1, currentUsername);
-            ResultSet appointments = selectAppointmentsStatement.executeQuery();
-            printResultSet(appointments, 4);
+            AppointmentDao appointments = new AppointmentDao(cm);
+            printAppointments((after, size) -> appointmentPage(appointments, after, size, first, last), afterId,
+                    limit);
         } catch (SQLException e) {
-            System.out.println("Please try again!");
+            fail("Please try again!");
         } finally {
             cm.closeConnection();
         }
     }
 
-    private static void logout(String[] tokens) {
+    // Reads a page of the current user's appointments
+    private interface AppointmentPages {
+        List<AppointmentDao.Row> read(int afterId, int limit) throws SQLException;
+    }
+
+    private void printAppointments(AppointmentPages pages, int afterId, int limit) throws SQLException {
+        // read and print a page at a time so a long history is never held in memory at once
+        int remaining = limit;
+        while (remaining > 0) {
+            int pageSize = Math.min(remaining, SHOW_APPOINTMENTS_PAGE_SIZE);
+            List<AppointmentDao.Row> page = pages.read(afterId, pageSize);
+            StringBuilder text = new StringBuilder();
+            for (AppointmentDao.Row a : page) {
+                // caregivers see who they vaccinate, patients see who vaccinates them
+                text.append(a.getAppointmentId()).append(' ').append(a.getVaccineName()).append(' ')
+                        .append(a.getTime()).append(' ')
+                        .append(currentCaregiver != null ? a.getPatientName() : a.getCaregiverName())
+                        .append(System.lineSeparator());
+                afterId = a.getAppointmentId();
+            }
+            out.print(text);
+            remaining -= page.size();
+            if (page.size() < pageSize) {
+                return;
+            }
+        }
+        // the limit cut the listing short, tell the user how to continue if there is more
+        if (!pages.read(afterId, 1).isEmpty()) {
+            out.println("More appointments: show_appointments --after " + afterId + " --limit " + limit);
+        }
+    }
+
+    private List<AppointmentDao.Row> appointmentPage(AppointmentDao appointments, int afterId, int limit,
+                                                     Date from, Date to) throws SQLException {
+        if (currentCaregiver != null) {
+            return appointments.getPageForCaregiver(currentCaregiver.getUsername(), afterId, limit, from, to);
+        }
+        return appointments.getPageForPatient(currentPatient.getUsername(), afterId, limit, from, to);
+    }
+
+    private void logout(String[] tokens) {
         // check 1: check if currently logged in
         if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+            fail("Please login first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 1 without extra word
         if (tokens.length != 1) {
-            System.out.println("Please try again!");
+            fail("Please try again!");
             return;
         }
         currentPatient = null;
         currentCaregiver = null;
-        System.out.println("Successfully logged out!");
+        if (currentToken != null) {
+            try {
+                SessionTable.close(currentToken);
+            } catch (SQLException e) {
+                // the persisted session still expires on its own
+                e.printStackTrace();
+            }
+            currentToken = null;
+        }
+        out.println("Successfully logged out!");
+    }
+
+    private void resume(String[] tokens) {
+        // resume <session_token>
+        if (currentCaregiver != null || currentPatient != null) {
+            fail("User already logged in.");
+            return;
+        }
+        if (tokens.length != 2) {
+            fail("Please try again!");
+            return;
+        }
+        SessionTable.Session session;
+        try {
+            session = SessionTable.resume(tokens[1]);
+        } catch (SQLException e) {
+            fail("Please try again!");
+            return;
+        }
+        if (session == null) {
+            fail("Session expired, please login again.");
+            return;
+        }
+        // the password was checked when the session was opened, so no hash is needed here
+        if (session.isCaregiver()) {
+            currentCaregiver = new Caregiver.CaregiverBuilder(session.getUsername(), null, null).build();
+        } else {
+            currentPatient = new Patient.PatientBuilder(session.getUsername(), null, null).build();
+        }
+        currentToken = tokens[1];
+        out.println("Logged in as: " + session.getUsername());
     }
 
-    //print the result set with given number of columns to console, separate by space
-    private static void printResultSet(ResultSet rs, int columnsNumber) throws SQLException {
-        while (rs.next()) {
-            for (int i = 1; i <= columnsNumber; i++) {
-                if (i > 1) System.out.print(" ");
-                System.out.print(rs.getString(i));
+    private void whoami(String[] tokens) {
+        // whoami
+        if (tokens.length != 1) {
+            fail("Please try again!");
+            return;
+        }
+        if (currentCaregiver != null) {
+            out.println("Logged in as caregiver: " + currentCaregiver.getUsername());
+        } else if (currentPatient != null) {
+            out.println("Logged in as patient: " + currentPatient.getUsername());
+        } else {
+            out.println("Not logged in");
+        }
+        out.println("Active sessions: " + SessionTable.getActiveCount());
+    }
+
+    private void stats(String[] tokens) {
+        // stats [on|off|reset]
+        if (tokens.length > 2) {
+            fail("Please try again!");
+            return;
+        }
+        if (tokens.length == 2) {
+            // metrics are shared by every session on the server, so only caregivers may switch or clear them
+            if (currentCaregiver == null) {
+                fail("Please login as a caregiver first!");
+                return;
             }
-            System.out.println("");
+            if (tokens[1].equals("on")) {
+                Metrics.setEnabled(true);
+            } else if (tokens[1].equals("off")) {
+                Metrics.setEnabled(false);
+            } else if (tokens[1].equals("reset")) {
+                Metrics.reset();
+            } else {
+                fail("Please try again!");
+                return;
+            }
+        }
+        out.println("Metrics " + (Metrics.isEnabled() ? "on" : "off"));
+        Metrics.report(out);
+        if (MemoryEngine.isEnabled()) {
+            out.println("Memory engine: " + MemoryEngine.get().getStats());
+        } else {
+            out.println("Connection pool: " + ConnectionManager.getPoolStats());
+            out.println("Vaccine cache: " + VaccineCache.getStats());
+            out.println("Availability index: " + AvailabilityIndex.get().getStats());
+        }
+        out.println("Sessions: active=" + SessionTable.getActiveCount());
+        out.println("Events: " + EventBus.getStats());
+    }
+
+    // The outcome of a command whose output is produced after its database work finishes
+    public static class Response {
+        private final boolean succeeded;
+        private final String message;
+
+        public Response(boolean succeeded, String message) {
+            this.succeeded = succeeded;
+            this.message = message;
+        }
+
+        private static CompletableFuture<Response> failed(String message) {
+            return CompletableFuture.completedFuture(new Response(false, message));
+        }
+
+        // Getters
+        public boolean isSucceeded() {
+            return succeeded;
+        }
+
+        public String getMessage() {
+            return message;
         }
     }
 }
@@ -0,0 +1,175 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+// Data access for the Appointments table
+public class AppointmentDao {
+
+    private static final String INSERT = "INSERT INTO Appointments (Patient_name, Caregiver_name, Vaccine_name, " +
+            "Time) OUTPUT INSERTED.Appointment_id VALUES (?, ?, ?, ?)";
+    private static final String SELECT = "SELECT Appointment_id, Patient_name, Caregiver_name, Vaccine_name, Time " +
+            "FROM Appointments WHERE Appointment_id = ?";
+    // keyset pages: the next page starts after the last id of the previous one, so no page costs more
+    // than its own rows no matter how deep into the history it is
+    private static final String SELECT_PAGE_BY_PATIENT = "SELECT TOP (?) Appointment_id, Patient_name, " +
+            "Caregiver_name, Vaccine_name, Time FROM Appointments WHERE Patient_name = ? AND Appointment_id > ? " +
+            "AND Time BETWEEN ? AND ? ORDER BY Appointment_id";
+    private static final String SELECT_PAGE_BY_CAREGIVER = "SELECT TOP (?) Appointment_id, Patient_name, " +
+            "Caregiver_name, Vaccine_name, Time FROM Appointments WHERE Caregiver_name = ? AND Appointment_id > ? " +
+            "AND Time BETWEEN ? AND ? ORDER BY Appointment_id";
+
+    // the date range used when a page isn't restricted to dates
+    public static final Date FIRST_DATE = Date.valueOf("0001-01-01");
+    public static final Date LAST_DATE = Date.valueOf("9999-12-31");
+
+    private static final int FETCH_SIZE = Util.getIntSetting("FetchSize", 256);
+    private static final String SELECT_CAREGIVER_LOADS = "SELECT Caregiver_name, COUNT(*) FROM Appointments " +
+            "GROUP BY Caregiver_name";
+    // the ownership check is part of the delete, so only one of two concurrent cancels gets the row
+    private static final String DELETE_FOR_PATIENT = "DELETE FROM Appointments OUTPUT DELETED.Appointment_id, " +
+            "DELETED.Patient_name, DELETED.Caregiver_name, DELETED.Vaccine_name, DELETED.Time " +
+            "WHERE Appointment_id = ? AND Patient_name = ?";
+    private static final String DELETE_FOR_CAREGIVER = "DELETE FROM Appointments OUTPUT DELETED.Appointment_id, " +
+            "DELETED.Patient_name, DELETED.Caregiver_name, DELETED.Vaccine_name, DELETED.Time " +
+            "WHERE Appointment_id = ? AND Caregiver_name = ?";
+    private static final String DELETE_DAY_FOR_CAREGIVER = "DELETE FROM Appointments " +
+            "OUTPUT DELETED.Appointment_id, DELETED.Patient_name, DELETED.Caregiver_name, DELETED.Vaccine_name, " +
+            "DELETED.Time WHERE Caregiver_name = ? AND Time = ?";
+
+    private final ConnectionManager cm;
+
+    public AppointmentDao(ConnectionManager cm) {
+        this.cm = cm;
+    }
+
+    // Returns the generated appointment id
+    public int insert(String patientName, String caregiverName, String vaccineName, Date time) throws SQLException {
+        PreparedStatement statement = cm.prepare(INSERT);
+        statement.setString(1, patientName);
+        statement.setString(2, caregiverName);
+        statement.setString(3, vaccineName);
+        statement.setDate(4, time);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    // Pass every caregiver with appointments and how many they have to a consumer
+    public void forEachCaregiverLoad(BiConsumer<String, Integer> consumer) throws SQLException {
+        PreparedStatement statement = cm.prepare(SELECT_CAREGIVER_LOADS);
+        statement.setFetchSize(FETCH_SIZE);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                consumer.accept(resultSet.getString(1), resultSet.getInt(2));
+            }
+        }
+    }
+
+    // Returns the appointment, or null if there is no such appointment
+    public Row get(int appointmentId) throws SQLException {
+        PreparedStatement statement = cm.prepare(SELECT);
+        statement.setInt(1, appointmentId);
+        List<Row> rows = readRows(statement);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    // Up to limit of a patient's appointments with ids after afterId and times from..to, by id
+    public List<Row> getPageForPatient(String patientName, int afterId, int limit, Date from, Date to)
+            throws SQLException {
+        return getPage(SELECT_PAGE_BY_PATIENT, patientName, afterId, limit, from, to);
+    }
+
+    // Up to limit of a caregiver's appointments with ids after afterId and times from..to, by id
+    public List<Row> getPageForCaregiver(String caregiverName, int afterId, int limit, Date from, Date to)
+            throws SQLException {
+        return getPage(SELECT_PAGE_BY_CAREGIVER, caregiverName, afterId, limit, from, to);
+    }
+
+    private List<Row> getPage(String sql, String username, int afterId, int limit, Date from, Date to)
+            throws SQLException {
+        PreparedStatement statement = cm.prepare(sql);
+        statement.setFetchSize(Math.min(limit, FETCH_SIZE));
+        statement.setInt(1, limit);
+        statement.setString(2, username);
+        statement.setInt(3, afterId);
+        statement.setDate(4, from);
+        statement.setDate(5, to);
+        return readRows(statement);
+    }
+
+    // Delete an appointment if the user is its patient (or caregiver).
+    // Returns the deleted appointment, or null if there is no such appointment of theirs.
+    public Row deleteOwned(int appointmentId, String username, boolean caregiver) throws SQLException {
+        PreparedStatement statement = cm.prepare(caregiver ? DELETE_FOR_CAREGIVER : DELETE_FOR_PATIENT);
+        statement.setInt(1, appointmentId);
+        statement.setString(2, username);
+        List<Row> rows = readRows(statement);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    // Delete all of a caregiver's appointments on a date, returns the deleted appointments
+    public List<Row> deleteDayForCaregiver(String caregiverName, Date time) throws SQLException {
+        PreparedStatement statement = cm.prepare(DELETE_DAY_FOR_CAREGIVER);
+        statement.setString(1, caregiverName);
+        statement.setDate(2, time);
+        return readRows(statement);
+    }
+
+    static List<Row> readRows(PreparedStatement statement) throws SQLException {
+        List<Row> rows = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                rows.add(new Row(resultSet.getInt("Appointment_id"), resultSet.getString("Patient_name"),
+                        resultSet.getString("Caregiver_name"), resultSet.getString("Vaccine_name"),
+                        resultSet.getDate("Time")));
+            }
+        }
+        return rows;
+    }
+
+    public static class Row {
+        private final int appointmentId;
+        private final String patientName;
+        private final String caregiverName;
+        private final String vaccineName;
+        private final Date time;
+
+        public Row(int appointmentId, String patientName, String caregiverName, String vaccineName, Date time) {
+            this.appointmentId = appointmentId;
+            this.patientName = patientName;
+            this.caregiverName = caregiverName;
+            this.vaccineName = vaccineName;
+            this.time = time;
+        }
+
+        // Getters
+        public int getAppointmentId() {
+            return appointmentId;
+        }
+
+        public String getPatientName() {
+            return patientName;
+        }
+
+        public String getCaregiverName() {
+            return caregiverName;
+        }
+
+        public String getVaccineName() {
+            return vaccineName;
+        }
+
+        public Date getTime() {
+            return time;
+        }
+    }
+}
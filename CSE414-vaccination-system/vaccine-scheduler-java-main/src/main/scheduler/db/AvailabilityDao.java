@@ -0,0 +1,106 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+// Data access for the Availabilities table
+public class AvailabilityDao {
+
+    public static final String INSERT = "INSERT INTO Availabilities (Time, Username) VALUES (?, ?)";
+    private static final String INSERT_IF_ABSENT = "INSERT INTO Availabilities (Time, Username) " +
+            "SELECT ?, ? WHERE NOT EXISTS " +
+            "(SELECT 1 FROM Availabilities WITH (UPDLOCK, HOLDLOCK) WHERE Time = ? AND Username = ?)";
+    private static final String SELECT_ALL = "SELECT Time, Username FROM Availabilities";
+    private static final String CLAIM = "DELETE FROM Availabilities WHERE Time = ? AND Username = ?";
+    private static final String SELECT_CAREGIVERS = "SELECT Username FROM Availabilities WHERE Time = ? " +
+            "ORDER BY Username";
+    // READPAST skips caregiver rows another transaction has locked, UPDLOCK keeps ours until commit
+    private static final String CLAIM_FIRST = "WITH Free AS (SELECT TOP (1) Time, Username FROM Availabilities " +
+            "WITH (UPDLOCK, READPAST, ROWLOCK) WHERE Time = ? ORDER BY Username) " +
+            "DELETE FROM Free OUTPUT DELETED.Username";
+
+    private static final int FETCH_SIZE = Util.getIntSetting("FetchSize", 256);
+
+    private final ConnectionManager cm;
+
+    public AvailabilityDao(ConnectionManager cm) {
+        this.cm = cm;
+    }
+
+    public void insert(Date time, String username) throws SQLException {
+        PreparedStatement statement = cm.prepare(INSERT);
+        statement.setDate(1, time);
+        statement.setString(2, username);
+        statement.executeUpdate();
+    }
+
+    // Insert the dates that don't exist yet as one batch, returns the dates that were inserted
+    public List<Date> insertIfAbsent(List<Date> times, String username) throws SQLException {
+        PreparedStatement statement = cm.prepare(INSERT_IF_ABSENT);
+        for (Date time : times) {
+            statement.setDate(1, time);
+            statement.setString(2, username);
+            statement.setDate(3, time);
+            statement.setString(4, username);
+            statement.addBatch();
+        }
+        int[] counts = statement.executeBatch();
+        List<Date> inserted = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                inserted.add(times.get(i));
+            }
+        }
+        return inserted;
+    }
+
+    // Caregivers free on a date, by username
+    public List<String> getCaregivers(Date time) throws SQLException {
+        PreparedStatement statement = cm.prepare(SELECT_CAREGIVERS);
+        statement.setDate(1, time);
+        List<String> caregivers = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                caregivers.add(resultSet.getString(1));
+            }
+        }
+        return caregivers;
+    }
+
+    // Stream every availability to a consumer without holding them all in memory
+    public void forEach(BiConsumer<Date, String> consumer) throws SQLException {
+        PreparedStatement statement = cm.prepare(SELECT_ALL);
+        statement.setFetchSize(FETCH_SIZE);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                consumer.accept(resultSet.getDate(1), resultSet.getString(2));
+            }
+        }
+    }
+
+    // Remove a specific caregiver's availability, returns false if someone else already claimed it.
+    // Must run inside a transaction to keep the claim until commit.
+    public boolean claim(Date time, String username) throws SQLException {
+        PreparedStatement statement = cm.prepare(CLAIM);
+        statement.setDate(1, time);
+        statement.setString(2, username);
+        return statement.executeUpdate() > 0;
+    }
+
+    // Remove and return the first free caregiver on a date that no other transaction is claiming,
+    // or null if there is none. Must run inside a transaction to keep the claim until commit.
+    public String claimFirst(Date time) throws SQLException {
+        PreparedStatement statement = cm.prepare(CLAIM_FIRST);
+        statement.setDate(1, time);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() ? resultSet.getString(1) : null;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Data access for the AvailabilitySummary table, the number of free caregivers per date.
+// Changes to Availabilities reach it through AvailabilitySummaryWriter once they have committed.
+public class AvailabilitySummaryDao {
+
+    private static final String ADJUST = "MERGE AvailabilitySummary WITH (HOLDLOCK) AS S " +
+            "USING (SELECT ? AS Time, ? AS Delta) AS D ON S.Time = D.Time " +
+            "WHEN MATCHED THEN UPDATE SET Free_caregivers = S.Free_caregivers + D.Delta " +
+            "WHEN NOT MATCHED THEN INSERT (Time, Free_caregivers) VALUES (D.Time, D.Delta);";
+    private static final String SELECT_OPEN = "SELECT Time, Free_caregivers FROM AvailabilitySummary " +
+            "WHERE Time BETWEEN ? AND ? AND Free_caregivers > 0 ORDER BY Time";
+    // dates where the summary disagrees with Availabilities, a missing summary row counts as zero
+    private static final String SELECT_MISMATCHES = "SELECT Time, SUM(Summarized), SUM(Actual) FROM " +
+            "(SELECT Time, Free_caregivers AS Summarized, 0 AS Actual FROM AvailabilitySummary UNION ALL " +
+            "SELECT Time, 0, COUNT(*) FROM Availabilities GROUP BY Time) C " +
+            "GROUP BY Time HAVING SUM(Summarized) <> SUM(Actual) ORDER BY Time";
+    private static final String DELETE_ALL = "DELETE FROM AvailabilitySummary";
+    // the table lock keeps uploads and reservations out until the rebuild commits
+    private static final String REBUILD = "INSERT INTO AvailabilitySummary (Time, Free_caregivers) " +
+            "SELECT Time, COUNT(*) FROM Availabilities WITH (TABLOCK, HOLDLOCK) GROUP BY Time";
+
+    private final ConnectionManager cm;
+
+    public AvailabilitySummaryDao(ConnectionManager cm) {
+        this.cm = cm;
+    }
+
+    public void adjust(Date time, int delta) throws SQLException {
+        PreparedStatement statement = cm.prepare(ADJUST);
+        statement.setDate(1, time);
+        statement.setInt(2, delta);
+        statement.executeUpdate();
+    }
+
+    // Apply one delta per date as a single batch
+    public void adjust(Map<Date, Integer> deltas) throws SQLException {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        PreparedStatement statement = cm.prepare(ADJUST);
+        for (Map.Entry<Date, Integer> delta : deltas.entrySet()) {
+            statement.setDate(1, delta.getKey());
+            statement.setInt(2, delta.getValue());
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
+    // Dates from start to end (inclusive) with at least one free caregiver, mapped to how many, by date
+    public Map<Date, Integer> getOpenDates(Date start, Date end) throws SQLException {
+        PreparedStatement statement = cm.prepare(SELECT_OPEN);
+        statement.setDate(1, start);
+        statement.setDate(2, end);
+        Map<Date, Integer> dates = new LinkedHashMap<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                dates.put(resultSet.getDate(1), resultSet.getInt(2));
+            }
+        }
+        return dates;
+    }
+
+    // Dates where the summary is out of step with Availabilities, empty if it is consistent
+    public List<Mismatch> getMismatches() throws SQLException {
+        PreparedStatement statement = cm.prepare(SELECT_MISMATCHES);
+        List<Mismatch> mismatches = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                mismatches.add(new Mismatch(resultSet.getDate(1), resultSet.getInt(2), resultSet.getInt(3)));
+            }
+        }
+        return mismatches;
+    }
+
+    // Recompute the whole summary from Availabilities. Must run inside a transaction.
+    public int rebuild() throws SQLException {
+        cm.prepare(DELETE_ALL).executeUpdate();
+        return cm.prepare(REBUILD).executeUpdate();
+    }
+
+    public static class Mismatch {
+        private final Date time;
+        private final int summarized;
+        private final int actual;
+
+        private Mismatch(Date time, int summarized, int actual) {
+            this.time = time;
+            this.summarized = summarized;
+            this.actual = actual;
+        }
+
+        // Getters
+        public Date getTime() {
+            return time;
+        }
+
+        public int getSummarized() {
+            return summarized;
+        }
+
+        public int getActual() {
+            return actual;
+        }
+    }
+}
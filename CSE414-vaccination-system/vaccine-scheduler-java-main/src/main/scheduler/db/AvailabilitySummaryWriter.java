@@ -0,0 +1,129 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Applies changes in the number of free caregivers per date to the AvailabilitySummary after the
+// transaction that made them has committed, so uploads, reservations and cancellations never lock a
+// summary row. Deltas that arrive while a write runs are added up per date and written by the next one,
+// as a single batch in date order, so a burst of reservations for one date costs one MERGE.
+// The summary lags Availabilities by one write. Deltas that were queued when a scheduler crashed are
+// lost; Scheduler --check-summary finds the dates that are off and --rebuild fixes them.
+public class AvailabilitySummaryWriter {
+
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "summary-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    // net change per date not written yet, sorted so writes lock the summary rows in the same order
+    private static final Map<Date, Integer> pending = new TreeMap<>();
+    private static boolean scheduled = false;
+
+    private AvailabilitySummaryWriter() {
+    }
+
+    public static void adjust(Date time, int delta) {
+        synchronized (pending) {
+            pending.merge(time, delta, Integer::sum);
+            schedule();
+        }
+    }
+
+    // One more free caregiver per occurrence of a date
+    public static void increment(List<Date> times) {
+        if (times.isEmpty()) {
+            return;
+        }
+        synchronized (pending) {
+            for (Date time : times) {
+                pending.merge(time, 1, Integer::sum);
+            }
+            schedule();
+        }
+    }
+
+    // Wait until every queued delta has been written or has failed, before shutting the storage down
+    public static void awaitIdle() {
+        synchronized (pending) {
+            while (scheduled) {
+                try {
+                    pending.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // Must hold the lock on pending
+    private static void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            writer.execute(AvailabilitySummaryWriter::writePending);
+        }
+    }
+
+    private static void writePending() {
+        while (true) {
+            Map<Date, Integer> deltas = new TreeMap<>();
+            synchronized (pending) {
+                for (Map.Entry<Date, Integer> delta : pending.entrySet()) {
+                    if (delta.getValue() != 0) {
+                        deltas.put(delta.getKey(), delta.getValue());
+                    }
+                }
+                pending.clear();
+                if (deltas.isEmpty()) {
+                    scheduled = false;
+                    pending.notifyAll();
+                    return;
+                }
+            }
+            try {
+                write(deltas);
+            } catch (SQLException | RuntimeException e) {
+                // keep the deltas for the next change to retry rather than spinning on a failing database
+                e.printStackTrace();
+                synchronized (pending) {
+                    for (Map.Entry<Date, Integer> delta : deltas.entrySet()) {
+                        pending.merge(delta.getKey(), delta.getValue(), Integer::sum);
+                    }
+                    scheduled = false;
+                    pending.notifyAll();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void write(Map<Date, Integer> deltas) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            ConnectionManager cm = new ConnectionManager();
+            cm.createConnection();
+            try {
+                cm.beginTransaction();
+                new AvailabilitySummaryDao(cm).adjust(deltas);
+                cm.commit();
+                return;
+            } catch (SQLException e) {
+                cm.rollback();
+                // only a rebuild or a second scheduler instance can deadlock the summary now
+                if (!ConnectionManager.isDeadlock(e) || attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+            } finally {
+                cm.closeConnection();
+            }
+        }
+    }
+}
@@ -1,41 +1,130 @@
 package scheduler.db;
 
+import scheduler.util.Metrics;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
 
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
-            ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    // the database engine, chosen with the Storage environment variable
+    private static StorageBackend backend = null;
+    // every ConnectionManager borrows from the same pool, so closing one returns the connection for reuse
+    private static ConnectionPool pool = null;
 
     private Connection con = null;
 
-    public ConnectionManager() {
-        try {
-            Class.forName(driverName);
-        } catch (ClassNotFoundException e) {
-            System.out.println(e.toString());
+    public static synchronized StorageBackend getBackend() {
+        if (backend == null) {
+            backend = StorageBackend.fromSettings();
         }
+        return backend;
     }
 
-    public Connection createConnection() {
+    private static synchronized ConnectionPool getPool() {
+        if (pool == null) {
+            pool = new ConnectionPool(getBackend());
+        }
+        return pool;
+    }
+
+    // Open the pool's minimum number of connections ahead of the first command
+    public static void warmUp() {
         try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
+            getPool().warmUp();
         } catch (SQLException e) {
             e.printStackTrace();
         }
-        return con;
     }
 
-    public void closeConnection() {
+    // True if a statement failed because the row it would insert already exists
+    public static boolean isDuplicateKey(SQLException e) {
+        // the in-memory engine reports duplicates with the standard exception and has no backend
+        if (e instanceof SQLIntegrityConstraintViolationException) {
+            return true;
+        }
+        return getBackend().isDuplicateKey(e);
+    }
+
+    // True if a transaction was picked as a deadlock victim and can be retried
+    public static boolean isDeadlock(SQLException e) {
+        return getBackend().isDeadlock(e);
+    }
+
+    public static ConnectionPool.Stats getPoolStats() {
+        return getPool().getStats();
+    }
+
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+    }
+
+    public Connection createConnection() {
+        long start = Metrics.start();
         try {
-            this.con.close();
+            con = getPool().borrow();
+            Metrics.record("pool:borrow", start, false);
         } catch (SQLException e) {
+            Metrics.record("pool:borrow", start, true);
             e.printStackTrace();
         }
+        // time every statement while metrics are on, otherwise hand out the connection itself
+        if (con != null && Metrics.isEnabled()) {
+            return InstrumentedConnection.wrap(con);
+        }
+        return con;
+    }
+
+    // A prepared statement for the borrowed connection, reused across borrows of the same
+    // physical connection. Callers must not close it; close its result sets instead.
+    public PreparedStatement prepare(String sql) throws SQLException {
+        if (this.con == null) {
+            throw new SQLException("No database connection available");
+        }
+        PreparedStatement statement = getPool().statementCache(this.con).prepare(getBackend().translate(sql));
+        if (Metrics.isEnabled()) {
+            return InstrumentedConnection.wrapStatement(statement, "sql:" + sql);
+        }
+        return statement;
+    }
+
+    // Run a statement directly on the borrowed connection, bypassing the statement cache. Needed for
+    // #temporary tables on SQL Server: a prepared statement runs through sp_prepexec, and a table created
+    // inside it is dropped again as soon as that call returns.
+    public void execute(String sql) throws SQLException {
+        if (this.con == null) {
+            throw new SQLException("No database connection available");
+        }
+        try (Statement statement = this.con.createStatement()) {
+            statement.execute(getBackend().translate(sql));
+        }
+    }
+
+    // Run the following statements in one transaction until commit() or rollback()
+    public void beginTransaction() throws SQLException {
+        this.con.setAutoCommit(false);
+    }
+
+    public void commit() throws SQLException {
+        this.con.commit();
+        this.con.setAutoCommit(true);
+    }
+
+    public void rollback() throws SQLException {
+        if (this.con != null && !this.con.getAutoCommit()) {
+            this.con.rollback();
+            this.con.setAutoCommit(true);
+        }
+    }
+
+    public void closeConnection() {
+        getPool().release(this.con);
+        this.con = null;
     }
 }
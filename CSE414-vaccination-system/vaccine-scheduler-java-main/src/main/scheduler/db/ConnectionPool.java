@@ -0,0 +1,308 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A bounded pool of physical connections shared by every ConnectionManager in the JVM.
+// Sizes and timeouts can be tuned with the PoolMinSize, PoolMaxSize, PoolBorrowTimeoutMs,
+// PoolIdleTimeoutMs and PoolLeakThresholdMs environment variables. Leak detection records where every
+// connection was borrowed, so it is off unless PoolLeakThresholdMs is set above 0.
+public class ConnectionPool {
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long MAINTENANCE_INTERVAL_MS = 5000;
+
+    private final StorageBackend backend;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMs;
+    private final long idleTimeoutMs;
+    private final long leakThresholdMs;
+
+    // idle connections, most recently returned first so the tail ages out
+    private final LinkedBlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<>();
+    // connections currently handed out, mapped to where and when they were borrowed
+    private final Map<Connection, Borrow> borrowed = new ConcurrentHashMap<>();
+    // prepared statements of each open connection, idle or borrowed
+    private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+    private final int statementCacheSize = Util.getIntSetting("StatementCacheSize", 64);
+    // one permit per connection that may be handed out at the same time
+    private final Semaphore permits;
+
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowNanos = new AtomicLong();
+    private final AtomicLong maxBorrowNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+
+    private final ScheduledExecutorService maintenance;
+    private volatile boolean closed = false;
+
+    public ConnectionPool(StorageBackend backend) {
+        this.backend = backend;
+        this.minSize = Util.getIntSetting("PoolMinSize", 2);
+        this.maxSize = Math.max(1, Math.max(minSize, Util.getIntSetting("PoolMaxSize", 10)));
+        this.borrowTimeoutMs = Util.getIntSetting("PoolBorrowTimeoutMs", 30000);
+        this.idleTimeoutMs = Util.getIntSetting("PoolIdleTimeoutMs", 600000);
+        this.leakThresholdMs = Util.getIntSetting("PoolLeakThresholdMs", 0);
+        this.permits = new Semaphore(maxSize, true);
+
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        this.maintenance.scheduleWithFixedDelay(this::maintain, MAINTENANCE_INTERVAL_MS,
+                MAINTENANCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Open connections up to the configured minimum so the first command doesn't pay the handshake
+    public synchronized void warmUp() throws SQLException {
+        while (!closed && idle.size() + borrowed.size() < minSize && permits.tryAcquire()) {
+            try {
+                idle.offerFirst(new IdleConnection(open()));
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        waiters.incrementAndGet();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLException("Timed out after " + borrowTimeoutMs + "ms waiting for a connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection");
+        } finally {
+            waiters.decrementAndGet();
+        }
+        try {
+            // holding a permit, so either reuse a validated idle connection or open a new one
+            IdleConnection candidate;
+            while ((candidate = idle.pollFirst()) != null) {
+                if (isValid(candidate.connection)) {
+                    return track(candidate.connection, start);
+                }
+                closeQuietly(candidate.connection);
+            }
+            return track(open(), start);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public void release(Connection con) {
+        if (con == null || borrowed.remove(con) == null) {
+            return;
+        }
+        try {
+            if (closed || con.isClosed()) {
+                closeQuietly(con);
+                return;
+            }
+            // never hand the next borrower someone else's open transaction
+            if (!con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+            idle.offerFirst(new IdleConnection(con));
+        } catch (SQLException e) {
+            closeQuietly(con);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public void close() {
+        closed = true;
+        maintenance.shutdownNow();
+        IdleConnection c;
+        while ((c = idle.pollFirst()) != null) {
+            closeQuietly(c.connection);
+        }
+    }
+
+    public Stats getStats() {
+        long count = borrowCount.get();
+        return new Stats(borrowed.size(), idle.size(), waiters.get(), maxSize, count,
+                count == 0 ? 0 : borrowNanos.get() / count, maxBorrowNanos.get(),
+                timeouts.get(), leaks.get());
+    }
+
+    // The statement cache of a connection currently borrowed from this pool
+    StatementCache statementCache(Connection con) {
+        return statementCaches.computeIfAbsent(con, c -> new StatementCache(c, statementCacheSize));
+    }
+
+    private Connection track(Connection con, long start) {
+        long elapsed = System.nanoTime() - start;
+        borrowCount.incrementAndGet();
+        borrowNanos.addAndGet(elapsed);
+        maxBorrowNanos.accumulateAndGet(elapsed, Math::max);
+        borrowed.put(con, new Borrow(leakThresholdMs > 0 ? new Throwable("Connection borrowed here") : null));
+        return con;
+    }
+
+    private Connection open() throws SQLException {
+        return backend.connect();
+    }
+
+    private boolean isValid(Connection con) {
+        try {
+            return con.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void closeQuietly(Connection con) {
+        StatementCache cache = statementCaches.remove(con);
+        if (cache != null) {
+            cache.close();
+        }
+        try {
+            con.close();
+        } catch (SQLException e) {
+            // the connection is being thrown away anyway
+        }
+    }
+
+    private void maintain() {
+        long now = System.currentTimeMillis();
+        // evict connections idle for too long, oldest first, but keep the minimum around
+        while (idle.size() > minSize) {
+            IdleConnection oldest = idle.peekLast();
+            if (oldest == null || now - oldest.since < idleTimeoutMs || !idle.removeLastOccurrence(oldest)) {
+                break;
+            }
+            closeQuietly(oldest.connection);
+        }
+        // report connections that have been out longer than the leak threshold, once each, on stderr so
+        // the report doesn't mix with command output
+        for (Borrow b : borrowed.values()) {
+            if (b.origin != null && !b.reported && now - b.since > leakThresholdMs) {
+                b.reported = true;
+                leaks.incrementAndGet();
+                System.err.println("Possible connection leak: connection held for " + (now - b.since) + "ms");
+                b.origin.printStackTrace();
+            }
+        }
+        try {
+            warmUp();
+        } catch (SQLException e) {
+            // the next borrow will surface the failure to the caller
+        }
+    }
+
+    private static class IdleConnection {
+        private final Connection connection;
+        private final long since = System.currentTimeMillis();
+
+        private IdleConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    private static class Borrow {
+        private final long since = System.currentTimeMillis();
+        // where the connection was borrowed, null while leak detection is off
+        private final Throwable origin;
+        private volatile boolean reported = false;
+
+        private Borrow(Throwable origin) {
+            this.origin = origin;
+        }
+    }
+
+    public static class Stats {
+        private final int active;
+        private final int idle;
+        private final int waiters;
+        private final int maxSize;
+        private final long borrows;
+        private final long avgBorrowNanos;
+        private final long maxBorrowNanos;
+        private final long timeouts;
+        private final long leaks;
+
+        private Stats(int active, int idle, int waiters, int maxSize, long borrows, long avgBorrowNanos,
+                      long maxBorrowNanos, long timeouts, long leaks) {
+            this.active = active;
+            this.idle = idle;
+            this.waiters = waiters;
+            this.maxSize = maxSize;
+            this.borrows = borrows;
+            this.avgBorrowNanos = avgBorrowNanos;
+            this.maxBorrowNanos = maxBorrowNanos;
+            this.timeouts = timeouts;
+            this.leaks = leaks;
+        }
+
+        // Getters
+        public int getActive() {
+            return active;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getWaiters() {
+            return waiters;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public long getBorrows() {
+            return borrows;
+        }
+
+        public long getAvgBorrowNanos() {
+            return avgBorrowNanos;
+        }
+
+        public long getMaxBorrowNanos() {
+            return maxBorrowNanos;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getLeaks() {
+            return leaks;
+        }
+
+        @Override
+        public String toString() {
+            return "active=" + active + ", idle=" + idle + ", waiters=" + waiters + ", max=" + maxSize +
+                    ", borrows=" + borrows + ", avgBorrow=" + avgBorrowNanos / 1000 + "us" +
+                    ", maxBorrow=" + maxBorrowNanos / 1000 + "us" + ", timeouts=" + timeouts +
+                    ", leaks=" + leaks;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+// Runs database work off the calling thread and hands back a future for its result.
+// The number of worker threads defaults to the connection pool's maximum size and can be set with
+// the DbThreads environment variable.
+public class DatabaseExecutor {
+
+    private static final ExecutorService workers = Executors.newFixedThreadPool(
+            Util.getIntSetting("DbThreads", Util.getIntSetting("PoolMaxSize", 10)), r -> {
+                Thread t = new Thread(r, "database-worker");
+                t.setDaemon(true);
+                return t;
+            });
+
+    // fires the time-triggered flushes of WriteBatchers
+    static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "database-flush-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private DatabaseExecutor() {
+    }
+
+    public interface DatabaseTask<T> {
+        T run() throws SQLException;
+    }
+
+    public static <T> CompletableFuture<T> submit(DatabaseTask<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        workers.execute(() -> {
+            try {
+                future.complete(task.run());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    static void execute(Runnable task) {
+        workers.execute(task);
+    }
+
+    // Wait for a future, rethrowing its SQLException or RuntimeException as is
+    public static <T> T await(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the database");
+        } catch (ExecutionException | CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+}
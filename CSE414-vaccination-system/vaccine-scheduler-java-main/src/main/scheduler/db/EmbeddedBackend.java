@@ -0,0 +1,185 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// A local, file or in-memory H2 database, so the scheduler and its benchmarks run without a cloud
+// database. The driver is loaded by name and isn't bundled: put the H2 jar on the classpath, or
+// point EmbeddedDriver and EmbeddedUrl at another engine with an H2-like dialect. An empty database
+// gets the tables of create.sql on first connect. Statements are rewritten from SQL Server's dialect:
+// table hints are dropped, OUTPUT clauses become data change delta tables, #temporary tables become
+// local temporary tables and untyped parameters get the type of the column they stand for.
+public class EmbeddedBackend implements StorageBackend {
+
+    private static final String DEFAULT_URL = "jdbc:h2:./scheduler-db;MODE=MSSQLServer;DATABASE_TO_UPPER=FALSE;" +
+            "LOCK_TIMEOUT=10000";
+
+    // H2 SQL states
+    private static final String DUPLICATE_KEY = "23505";
+    private static final String DEADLOCK = "40001";
+
+    // types of the columns bound through untyped parameters in INSERT ... SELECT and MERGE ... USING
+    private static final Map<String, String> PARAMETER_TYPES = Map.of(
+            "Time", "DATE", "Delta", "INT", "Name", "VARCHAR(255)", "Username", "VARCHAR(255)",
+            "Patient_name", "VARCHAR(255)", "Caregiver_name", "VARCHAR(255)", "Vaccine_name", "VARCHAR(255)",
+            "Salt", "VARBINARY(16)", "Hash", "VARBINARY(128)");
+
+    private static final Pattern TABLE_HINTS = Pattern.compile(
+            "\\s+WITH\\s*\\(\\s*(?:UPDLOCK|READPAST|ROWLOCK|HOLDLOCK|TABLOCKX?|NOLOCK)" +
+            "(?:\\s*,\\s*(?:UPDLOCK|READPAST|ROWLOCK|HOLDLOCK|TABLOCKX?|NOLOCK))*\\s*\\)",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern CREATE_TEMPORARY = Pattern.compile("^CREATE TABLE #(\\w+) (.*)$");
+    private static final Pattern TEMPORARY_NAME = Pattern.compile("#(\\w+)");
+    private static final Pattern IDENTITY = Pattern.compile("IDENTITY\\(1, 1\\)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FIXED_BINARY = Pattern.compile("(?<!VAR)BINARY\\((\\d+)\\)",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern DATETIME2 = Pattern.compile("\\bdatetime2\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern INCLUDE = Pattern.compile("\\s+INCLUDE\\s*\\([^)]*\\)", Pattern.CASE_INSENSITIVE);
+    // WITH Free AS (SELECT TOP (n) cols FROM t WHERE w ORDER BY o) DELETE FROM Free OUTPUT DELETED.c [INTO x]
+    private static final Pattern CLAIM_CTE = Pattern.compile("^WITH (\\w+) AS \\(SELECT (TOP \\(\\S+\\)) (.+?) " +
+            "FROM (\\w+) WHERE (.+?) ORDER BY (.+?)\\) DELETE FROM \\1 OUTPUT DELETED\\.(\\w+)(?: INTO (.+))?$");
+    private static final Pattern INSERT_OUTPUT = Pattern.compile("^(INSERT INTO \\S+ \\([^)]*\\)) OUTPUT (.+?) " +
+            "((?:VALUES|SELECT) .*)$");
+    private static final Pattern UPDATE_OUTPUT = Pattern.compile("^(UPDATE \\S+ SET .+?) OUTPUT (.+?) (WHERE .*)$");
+    private static final Pattern DELETE_OUTPUT = Pattern.compile("^(DELETE FROM \\S+) OUTPUT (.+?) (WHERE .*)$");
+    private static final Pattern MERGE = Pattern.compile("^MERGE (?!INTO )");
+    private static final Pattern INSERT_SELECT = Pattern.compile("INSERT INTO \\S+ \\(([^)]*)\\) SELECT (.*?)" +
+            "(?= FROM | WHERE |\\)?$)");
+    private static final Pattern ALIASED_PARAMETER = Pattern.compile("(?<!CAST\\()\\? AS (\\w+)");
+
+    private final String driverName = Util.getSetting("EmbeddedDriver", "org.h2.Driver");
+    private final String connectionUrl = Util.getSetting("EmbeddedUrl", DEFAULT_URL);
+    private final Map<String, String> translations = new ConcurrentHashMap<>();
+    private volatile boolean bootstrapped = false;
+
+    public EmbeddedBackend() {
+        try {
+            Class.forName(driverName);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Storage=embedded needs " + driverName + " on the classpath", e);
+        }
+    }
+
+    @Override
+    public Connection connect() throws SQLException {
+        Connection con = DriverManager.getConnection(connectionUrl);
+        if (!bootstrapped) {
+            bootstrap(con);
+        }
+        return con;
+    }
+
+    // Create the schema if the database is empty
+    private synchronized void bootstrap(Connection con) throws SQLException {
+        if (bootstrapped) {
+            return;
+        }
+        try (ResultSet tables = con.getMetaData().getTables(null, null, "Caregivers", null)) {
+            if (!tables.next()) {
+                try (Statement statement = con.createStatement()) {
+                    for (String ddl : SchemaScript.statements(SchemaScript.load())) {
+                        statement.execute(translate(ddl));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new SQLException("Failed to read the schema: " + e.getMessage(), e);
+        }
+        bootstrapped = true;
+    }
+
+    @Override
+    public String translate(String sql) {
+        return translations.computeIfAbsent(sql, EmbeddedBackend::rewrite);
+    }
+
+    private static String rewrite(String sql) {
+        sql = TABLE_HINTS.matcher(sql.trim()).replaceAll("");
+        if (sql.endsWith(";")) {
+            sql = sql.substring(0, sql.length() - 1);
+        }
+
+        // schema
+        Matcher m = CREATE_TEMPORARY.matcher(sql);
+        if (m.matches()) {
+            sql = "CREATE LOCAL TEMPORARY TABLE " + m.group(1) + " " + m.group(2) + " TRANSACTIONAL";
+        }
+        sql = TEMPORARY_NAME.matcher(sql).replaceAll("$1");
+        sql = IDENTITY.matcher(sql).replaceAll("GENERATED BY DEFAULT AS IDENTITY");
+        sql = FIXED_BINARY.matcher(sql).replaceAll("VARBINARY($1)");
+        sql = DATETIME2.matcher(sql).replaceAll("TIMESTAMP");
+        sql = INCLUDE.matcher(sql).replaceAll("");
+
+        // OUTPUT clauses
+        m = CLAIM_CTE.matcher(sql);
+        if (m.matches()) {
+            String columns = m.group(3);
+            String delete = "DELETE FROM " + m.group(4) + " WHERE (" + columns + ") IN (SELECT " + m.group(2) +
+                    " " + columns + " FROM " + m.group(4) + " WHERE " + m.group(5) + " ORDER BY " + m.group(6) + ")";
+            String deleted = "SELECT " + m.group(7) + " FROM OLD TABLE (" + delete + ")";
+            sql = m.group(8) == null ? deleted : "INSERT INTO " + m.group(8) + " " + deleted;
+        }
+        m = INSERT_OUTPUT.matcher(sql);
+        if (m.matches()) {
+            sql = "SELECT " + unqualify(m.group(2)) + " FROM FINAL TABLE (" + m.group(1) + " " + m.group(3) + ")";
+        }
+        m = UPDATE_OUTPUT.matcher(sql);
+        if (m.matches()) {
+            sql = "SELECT " + unqualify(m.group(2)) + " FROM FINAL TABLE (" + m.group(1) + " " + m.group(3) + ")";
+        }
+        m = DELETE_OUTPUT.matcher(sql);
+        if (m.matches()) {
+            sql = "SELECT " + unqualify(m.group(2)) + " FROM OLD TABLE (" + m.group(1) + " " + m.group(3) + ")";
+        }
+        sql = MERGE.matcher(sql).replaceAll("MERGE INTO ");
+
+        // untyped parameters
+        m = INSERT_SELECT.matcher(sql);
+        if (m.find()) {
+            String[] columns = m.group(1).split(",\\s*");
+            String[] items = m.group(2).split(",\\s*");
+            for (int i = 0; i < items.length && i < columns.length; i++) {
+                if (items[i].equals("?")) {
+                    items[i] = cast(columns[i]);
+                }
+            }
+            sql = sql.substring(0, m.start(2)) + String.join(", ", items) + sql.substring(m.end(2));
+        }
+        m = ALIASED_PARAMETER.matcher(sql);
+        StringBuilder typed = new StringBuilder();
+        while (m.find()) {
+            m.appendReplacement(typed, Matcher.quoteReplacement(cast(m.group(1)) + " AS " + m.group(1)));
+        }
+        m.appendTail(typed);
+        return typed.toString();
+    }
+
+    private static String cast(String column) {
+        return "CAST(? AS " + PARAMETER_TYPES.getOrDefault(column, "VARCHAR(255)") + ")";
+    }
+
+    // INSERTED.a, INSERTED.b -> a, b
+    private static String unqualify(String columns) {
+        return columns.replaceAll("(?:INSERTED|DELETED)\\.", "");
+    }
+
+    @Override
+    public boolean isDuplicateKey(SQLException e) {
+        return DUPLICATE_KEY.equals(e.getSQLState());
+    }
+
+    @Override
+    public boolean isDeadlock(SQLException e) {
+        return DEADLOCK.equals(e.getSQLState());
+    }
+}
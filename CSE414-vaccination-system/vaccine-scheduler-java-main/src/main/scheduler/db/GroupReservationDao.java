@@ -0,0 +1,76 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+// Set-based statements that book many patients on one date at once. The patients and the caregivers
+// claimed for them are staged in temporary tables on the connection, so everything from stage() to
+// drop() must run in one transaction on the same connection.
+public class GroupReservationDao {
+
+    private static final String CREATE_PATIENTS = "CREATE TABLE #GroupPatients " +
+            "(Seq int PRIMARY KEY, Patient_name varchar(255))";
+    private static final String CREATE_CAREGIVERS = "CREATE TABLE #GroupCaregivers " +
+            "(Seq int IDENTITY(1, 1) PRIMARY KEY, Caregiver_name varchar(255))";
+    private static final String STAGE = "INSERT INTO #GroupPatients (Seq, Patient_name) VALUES (?, ?)";
+    private static final String COUNT_KNOWN = "SELECT COUNT(*) FROM #GroupPatients G " +
+            "WHERE EXISTS (SELECT 1 FROM Patients P WHERE P.Username = G.Patient_name)";
+    // same locking as a single reservation, for up to n caregivers at once
+    private static final String CLAIM = "WITH Free AS (SELECT TOP (?) Time, Username FROM Availabilities " +
+            "WITH (UPDLOCK, READPAST, ROWLOCK) WHERE Time = ? ORDER BY Username) " +
+            "DELETE FROM Free OUTPUT DELETED.Username INTO #GroupCaregivers (Caregiver_name)";
+    // pair the known patients, in file order, with the claimed caregivers
+    private static final String BOOK = "INSERT INTO Appointments (Patient_name, Caregiver_name, Vaccine_name, " +
+            "Time) OUTPUT INSERTED.Appointment_id, INSERTED.Patient_name, INSERTED.Caregiver_name, " +
+            "INSERTED.Vaccine_name, INSERTED.Time SELECT G.Patient_name, C.Caregiver_name, ?, ? " +
+            "FROM (SELECT Patient_name, ROW_NUMBER() OVER (ORDER BY Seq) AS Seq FROM #GroupPatients G " +
+            "WHERE EXISTS (SELECT 1 FROM Patients P WHERE P.Username = G.Patient_name)) G " +
+            "JOIN #GroupCaregivers C ON G.Seq = C.Seq";
+    private static final String DROP = "DROP TABLE #GroupPatients, #GroupCaregivers";
+
+    private final ConnectionManager cm;
+
+    public GroupReservationDao(ConnectionManager cm) {
+        this.cm = cm;
+    }
+
+    // Stage the patients as one batch, returns how many of them exist
+    public int stage(List<String> patientNames) throws SQLException {
+        cm.execute(CREATE_PATIENTS);
+        cm.execute(CREATE_CAREGIVERS);
+        PreparedStatement statement = cm.prepare(STAGE);
+        for (int i = 0; i < patientNames.size(); i++) {
+            statement.setInt(1, i);
+            statement.setString(2, patientNames.get(i));
+            statement.addBatch();
+        }
+        statement.executeBatch();
+        try (ResultSet resultSet = cm.prepare(COUNT_KNOWN).executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    // Claim up to n caregivers free on a date, returns how many were claimed
+    public int claim(Date time, int n) throws SQLException {
+        PreparedStatement statement = cm.prepare(CLAIM);
+        statement.setInt(1, n);
+        statement.setDate(2, time);
+        return statement.executeUpdate();
+    }
+
+    // Book one claimed caregiver for each known patient, as far as they go
+    public List<AppointmentDao.Row> book(String vaccineName, Date time) throws SQLException {
+        PreparedStatement statement = cm.prepare(BOOK);
+        statement.setString(1, vaccineName);
+        statement.setDate(2, time);
+        return AppointmentDao.readRows(statement);
+    }
+
+    public void drop() throws SQLException {
+        cm.execute(DROP);
+    }
+}
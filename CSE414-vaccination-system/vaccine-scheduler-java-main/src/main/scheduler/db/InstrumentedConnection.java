@@ -0,0 +1,93 @@
+package scheduler.db;
+
+import scheduler.util.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// Wraps a connection so that every PreparedStatement it creates records its executions in Metrics
+// under "sql:<statement>", including errors and rows returned or affected. Only used while metrics
+// are enabled, so the plain connection is handed out otherwise.
+class InstrumentedConnection {
+
+    private InstrumentedConnection() {
+    }
+
+    static Connection wrap(Connection con) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    Object result = invoke(con, method, args);
+                    if (result instanceof PreparedStatement && method.getName().equals("prepareStatement")) {
+                        return wrapStatement((PreparedStatement) result, "sql:" + args[0]);
+                    }
+                    return result;
+                });
+    }
+
+    static PreparedStatement wrapStatement(PreparedStatement statement, String sqlName) {
+        String name = normalize(sqlName);
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (!method.getName().startsWith("execute")) {
+                return invoke(statement, method, args);
+            }
+            long start = Metrics.start();
+            try {
+                Object result = invoke(statement, method, args);
+                Metrics.record(name, start, false, rowsOf(result));
+                if (result instanceof ResultSet) {
+                    return wrapResultSet((ResultSet) result, name);
+                }
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                Metrics.record(name, start, true);
+                throw e;
+            }
+        };
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, handler);
+    }
+
+    // count rows as they're read, since the driver can't tell up front
+    private static ResultSet wrapResultSet(ResultSet resultSet, String name) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                    Object result = invoke(resultSet, method, args);
+                    if (method.getName().equals("next") && Boolean.TRUE.equals(result)) {
+                        Metrics.addRows(name, 1);
+                    }
+                    return result;
+                });
+    }
+
+    private static long rowsOf(Object result) {
+        if (result instanceof Integer) {
+            return (Integer) result;
+        }
+        if (result instanceof int[]) {
+            long rows = 0;
+            for (int count : (int[]) result) {
+                rows += Math.max(0, count);
+            }
+            return rows;
+        }
+        return -1;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static String normalize(String name) {
+        return name.trim().replaceAll("\\s+", " ");
+    }
+}
@@ -0,0 +1,44 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads create.sql, from the classpath or from the file named by the SchemaFile environment variable
+public class SchemaScript {
+
+    private static final String DEFAULT_FILE = "src/main/resources/create.sql";
+
+    private SchemaScript() {
+    }
+
+    public static String load() throws IOException {
+        String file = Util.getSetting("SchemaFile", null);
+        if (file == null) {
+            try (InputStream in = SchemaScript.class.getResourceAsStream("/create.sql")) {
+                if (in != null) {
+                    return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            }
+            file = DEFAULT_FILE;
+        }
+        return new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+    }
+
+    // The statements of a script, without comments. Statements are separated by semicolons.
+    public static List<String> statements(String script) {
+        List<String> statements = new ArrayList<>();
+        for (String statement : script.replaceAll("(?m)^\\s*--.*$", "").split(";")) {
+            if (!statement.isBlank()) {
+                statements.add(statement.trim().replaceAll("\\s+", " "));
+            }
+        }
+        return statements;
+    }
+}
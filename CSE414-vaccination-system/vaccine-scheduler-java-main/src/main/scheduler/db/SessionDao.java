@@ -0,0 +1,74 @@
+package scheduler.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+// Data access for the Sessions table
+public class SessionDao {
+
+    public static final String INSERT = "INSERT INTO Sessions (Token_hash, Username, Is_caregiver, Expires) " +
+            "VALUES (?, ?, ?, ?)";
+    private static final String SELECT = "SELECT Username, Is_caregiver, Expires FROM Sessions " +
+            "WHERE Token_hash = ? AND Expires > ?";
+    private static final String DELETE = "DELETE FROM Sessions WHERE Token_hash = ?";
+    private static final String DELETE_EXPIRED = "DELETE FROM Sessions WHERE Expires <= ?";
+
+    private final ConnectionManager cm;
+
+    public SessionDao(ConnectionManager cm) {
+        this.cm = cm;
+    }
+
+    // Returns the session, or null if there is none or it expired before now
+    public Row get(byte[] tokenHash, Timestamp now) throws SQLException {
+        PreparedStatement statement = cm.prepare(SELECT);
+        statement.setBytes(1, tokenHash);
+        statement.setTimestamp(2, now);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            if (!resultSet.next()) {
+                return null;
+            }
+            return new Row(resultSet.getString(1), resultSet.getBoolean(2), resultSet.getTimestamp(3));
+        }
+    }
+
+    public void delete(byte[] tokenHash) throws SQLException {
+        PreparedStatement statement = cm.prepare(DELETE);
+        statement.setBytes(1, tokenHash);
+        statement.executeUpdate();
+    }
+
+    // Returns how many expired sessions were removed
+    public int deleteExpired(Timestamp now) throws SQLException {
+        PreparedStatement statement = cm.prepare(DELETE_EXPIRED);
+        statement.setTimestamp(1, now);
+        return statement.executeUpdate();
+    }
+
+    public static class Row {
+        private final String username;
+        private final boolean caregiver;
+        private final Timestamp expires;
+
+        public Row(String username, boolean caregiver, Timestamp expires) {
+            this.username = username;
+            this.caregiver = caregiver;
+            this.expires = expires;
+        }
+
+        // Getters
+        public String getUsername() {
+            return username;
+        }
+
+        public boolean isCaregiver() {
+            return caregiver;
+        }
+
+        public Timestamp getExpires() {
+            return expires;
+        }
+    }
+}
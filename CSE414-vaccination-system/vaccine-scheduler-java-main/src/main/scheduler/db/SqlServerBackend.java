@@ -0,0 +1,52 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+// SQL Server, normally Azure SQL, addressed by the Server, DBName, UserID and Password environment
+// variables. DBUrl points the scheduler at another SQL Server instead, e.g. a local one.
+public class SqlServerBackend implements StorageBackend {
+
+    private static final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+
+    // SQL Server error codes
+    private static final int PRIMARY_KEY_VIOLATION = 2627;
+    private static final int UNIQUE_INDEX_VIOLATION = 2601;
+    private static final int DEADLOCK_VICTIM = 1205;
+
+    private final String connectionUrl = Util.getSetting("DBUrl", "jdbc:sqlserver://" +
+            System.getenv("Server") + ".database.windows.net:1433;database=" + System.getenv("DBName"));
+    private final String userName = System.getenv("UserID");
+    private final String userPass = System.getenv("Password");
+
+    public SqlServerBackend() {
+        try {
+            Class.forName(driverName);
+        } catch (ClassNotFoundException e) {
+            System.out.println(e.toString());
+        }
+    }
+
+    @Override
+    public Connection connect() throws SQLException {
+        return DriverManager.getConnection(connectionUrl, userName, userPass);
+    }
+
+    @Override
+    public String translate(String sql) {
+        return sql;
+    }
+
+    @Override
+    public boolean isDuplicateKey(SQLException e) {
+        return e.getErrorCode() == PRIMARY_KEY_VIOLATION || e.getErrorCode() == UNIQUE_INDEX_VIOLATION;
+    }
+
+    @Override
+    public boolean isDeadlock(SQLException e) {
+        return e.getErrorCode() == DEADLOCK_VICTIM;
+    }
+}
@@ -0,0 +1,59 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Prepared statements of one physical connection, keyed by SQL text, so each statement is parsed
+// by the server once per connection instead of once per call. Least recently used statements are
+// closed once more than StatementCacheSize are open. Not thread-safe: a connection, and with it
+// its cache, only ever has one borrower at a time.
+class StatementCache {
+
+    private final Connection con;
+    private final Map<String, PreparedStatement> statements;
+
+    StatementCache(Connection con, int maxSize) {
+        this.con = con;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > maxSize) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null || statement.isClosed()) {
+            statement = con.prepareStatement(sql);
+            statements.put(sql, statement);
+        } else {
+            // a previous borrower may have left parameters or a pending batch behind
+            statement.clearParameters();
+            statement.clearBatch();
+        }
+        return statement;
+    }
+
+    void close() {
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // the statement is being thrown away anyway
+        }
+    }
+}
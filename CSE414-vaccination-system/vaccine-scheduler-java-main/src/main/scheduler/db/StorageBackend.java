@@ -0,0 +1,42 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// The database engine behind the connection pool. The DAOs are written in SQL Server's dialect and
+// every statement passes through translate() before it is prepared, so a backend for another
+// engine only has to rewrite what that engine doesn't understand. The Storage environment variable
+// selects sqlserver (the default), embedded, or the class name of another implementation.
+public interface StorageBackend {
+
+    // Open a new physical connection
+    Connection connect() throws SQLException;
+
+    // Rewrite a statement written for SQL Server, including the statements of create.sql
+    String translate(String sql);
+
+    // True if a statement failed because it would duplicate a primary key or unique index
+    boolean isDuplicateKey(SQLException e);
+
+    // True if a transaction was rolled back to break a deadlock and can simply be retried
+    boolean isDeadlock(SQLException e);
+
+    static StorageBackend fromSettings() {
+        String storage = Util.getSetting("Storage", "sqlserver");
+        if (storage.equalsIgnoreCase("sqlserver")) {
+            return new SqlServerBackend();
+        }
+        if (storage.equalsIgnoreCase("embedded")) {
+            return new EmbeddedBackend();
+        }
+        try {
+            return (StorageBackend) Class.forName(storage).getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException | NoSuchMethodException | InstantiationException |
+                IllegalAccessException | InvocationTargetException | ClassCastException e) {
+            throw new IllegalStateException("Unknown storage backend " + storage, e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package scheduler.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Data access for the Caregivers and Patients tables, which share the same shape
+public class UserDao {
+
+    public static final String INSERT_CAREGIVER = "INSERT INTO Caregivers (Username, Salt, Hash) VALUES (?, ?, ?)";
+    public static final String INSERT_PATIENT = "INSERT INTO Patients (Username, Salt, Hash) VALUES (?, ?, ?)";
+
+    // how many usernames getExisting() looks up per query, well under SQL Server's 2100 parameters
+    private static final int LOOKUP_SIZE = 1000;
+
+    private final ConnectionManager cm;
+    private final String insert;
+    private final String selectCredentials;
+    private final String updateHash;
+    private final String selectExisting;
+    private final String insertIfAbsent;
+
+    private UserDao(ConnectionManager cm, String table) {
+        this.cm = cm;
+        this.insert = "INSERT INTO " + table + " (Username, Salt, Hash) VALUES (?, ?, ?)";
+        this.selectCredentials = "SELECT Salt, Hash FROM " + table + " WHERE Username = ?";
+        this.updateHash = "UPDATE " + table + " SET Hash = ? WHERE Username = ?";
+        this.selectExisting = "SELECT Username FROM " + table + " WHERE Username IN (" +
+                String.join(", ", Collections.nCopies(LOOKUP_SIZE, "?")) + ")";
+        this.insertIfAbsent = "INSERT INTO " + table + " (Username, Salt, Hash) SELECT ?, ?, ? " +
+                "WHERE NOT EXISTS (SELECT 1 FROM " + table + " WITH (UPDLOCK, HOLDLOCK) WHERE Username = ?)";
+    }
+
+    public static UserDao caregivers(ConnectionManager cm) {
+        return new UserDao(cm, "Caregivers");
+    }
+
+    public static UserDao patients(ConnectionManager cm) {
+        return new UserDao(cm, "Patients");
+    }
+
+    public void insert(String username, byte[] salt, byte[] hash) throws SQLException {
+        PreparedStatement statement = cm.prepare(insert);
+        statement.setString(1, username);
+        statement.setBytes(2, salt);
+        statement.setBytes(3, hash);
+        statement.executeUpdate();
+    }
+
+    // Returns the stored salt and hash, or null if there is no such user
+    public Credentials getCredentials(String username) throws SQLException {
+        PreparedStatement statement = cm.prepare(selectCredentials);
+        statement.setString(1, username);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            if (!resultSet.next()) {
+                return null;
+            }
+            return new Credentials(resultSet.getBytes("Salt"), resultSet.getBytes("Hash"));
+        }
+    }
+
+    // Of the usernames, the ones that already exist, looked up LOOKUP_SIZE at a time instead of one by one
+    public Set<String> getExisting(List<String> usernames) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        PreparedStatement statement = cm.prepare(selectExisting);
+        for (int from = 0; from < usernames.size(); from += LOOKUP_SIZE) {
+            // the last slice repeats its final name so every query has the same shape and statement
+            for (int i = 0; i < LOOKUP_SIZE; i++) {
+                statement.setString(i + 1, usernames.get(Math.min(from + i, usernames.size() - 1)));
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    existing.add(resultSet.getString(1));
+                }
+            }
+        }
+        return existing;
+    }
+
+    // Insert the users as one batch, skipping usernames that already exist. Returns the usernames inserted.
+    public List<String> insertIfAbsent(Map<String, Credentials> users) throws SQLException {
+        PreparedStatement statement = cm.prepare(insertIfAbsent);
+        List<String> usernames = new ArrayList<>(users.keySet());
+        for (String username : usernames) {
+            statement.setString(1, username);
+            statement.setBytes(2, users.get(username).getSalt());
+            statement.setBytes(3, users.get(username).getHash());
+            statement.setString(4, username);
+            statement.addBatch();
+        }
+        int[] counts = statement.executeBatch();
+        List<String> inserted = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                inserted.add(usernames.get(i));
+            }
+        }
+        return inserted;
+    }
+
+    public void updateHash(String username, byte[] hash) throws SQLException {
+        PreparedStatement statement = cm.prepare(updateHash);
+        statement.setBytes(1, hash);
+        statement.setString(2, username);
+        statement.executeUpdate();
+    }
+
+    public static class Credentials {
+        private final byte[] salt;
+        private final byte[] hash;
+
+        public Credentials(byte[] salt, byte[] hash) {
+            this.salt = salt;
+            this.hash = hash;
+        }
+
+        // Getters
+        public byte[] getSalt() {
+            return salt;
+        }
+
+        public byte[] getHash() {
+            return hash;
+        }
+    }
+}
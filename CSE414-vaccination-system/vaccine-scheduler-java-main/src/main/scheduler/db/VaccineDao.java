@@ -0,0 +1,93 @@
+package scheduler.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Data access for the Vaccines table. Dose counts only change through server-side deltas.
+public class VaccineDao {
+
+    // add a delta to a vaccine's doses, creating it if needed, unless that would make the count negative
+    public static final String MERGE_DOSES = "MERGE Vaccines WITH (HOLDLOCK) AS V " +
+            "USING (SELECT ? AS Name, ? AS Delta) AS D ON V.Name = D.Name " +
+            "WHEN MATCHED AND V.Doses + D.Delta >= 0 THEN UPDATE SET Doses = V.Doses + D.Delta " +
+            "WHEN NOT MATCHED AND D.Delta >= 0 THEN INSERT (Name, Doses) VALUES (D.Name, D.Delta);";
+
+    private static final String INSERT = "INSERT INTO Vaccines (Name, Doses) VALUES (?, ?)";
+    private static final String SELECT_DOSES = "SELECT Doses FROM Vaccines WHERE Name = ?";
+    private static final String SELECT_IN_STOCK = "SELECT Name, Doses FROM Vaccines WHERE Doses > 0 ORDER BY Name";
+    private static final String ADD_DOSES = "UPDATE Vaccines SET Doses = Doses + ? OUTPUT INSERTED.Doses " +
+            "WHERE Name = ?";
+    private static final String REMOVE_DOSES = "UPDATE Vaccines SET Doses = Doses - ? OUTPUT INSERTED.Doses " +
+            "WHERE Name = ? AND Doses >= ?";
+
+    private final ConnectionManager cm;
+
+    public VaccineDao(ConnectionManager cm) {
+        this.cm = cm;
+    }
+
+    public void insert(String name, int doses) throws SQLException {
+        PreparedStatement statement = cm.prepare(INSERT);
+        statement.setString(1, name);
+        statement.setInt(2, doses);
+        statement.executeUpdate();
+    }
+
+    // Returns the vaccine's doses, or null if there is no such vaccine
+    public Integer getDoses(String name) throws SQLException {
+        PreparedStatement statement = cm.prepare(SELECT_DOSES);
+        statement.setString(1, name);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() ? resultSet.getInt(1) : null;
+        }
+    }
+
+    // Vaccines with at least one dose, by name
+    public Map<String, Integer> getInStock() throws SQLException {
+        Map<String, Integer> vaccines = new LinkedHashMap<>();
+        try (ResultSet resultSet = cm.prepare(SELECT_IN_STOCK).executeQuery()) {
+            while (resultSet.next()) {
+                vaccines.put(resultSet.getString(1), resultSet.getInt(2));
+            }
+        }
+        return vaccines;
+    }
+
+    // Returns the new dose count, or null if there is no such vaccine
+    public Integer addDoses(String name, int num) throws SQLException {
+        PreparedStatement statement = cm.prepare(ADD_DOSES);
+        statement.setInt(1, num);
+        statement.setString(2, name);
+        return singleInt(statement);
+    }
+
+    // Returns the new dose count, or null if there is no such vaccine or not enough doses
+    public Integer removeDoses(String name, int num) throws SQLException {
+        PreparedStatement statement = cm.prepare(REMOVE_DOSES);
+        statement.setInt(1, num);
+        statement.setString(2, name);
+        statement.setInt(3, num);
+        return singleInt(statement);
+    }
+
+    // Apply each delta as one batch, returns the update count per delta in order (0 if rejected)
+    public int[] mergeDoses(List<String> names, Map<String, Integer> deltas) throws SQLException {
+        PreparedStatement statement = cm.prepare(MERGE_DOSES);
+        for (String name : names) {
+            statement.setString(1, name);
+            statement.setInt(2, deltas.get(name));
+            statement.addBatch();
+        }
+        return statement.executeBatch();
+    }
+
+    private static Integer singleInt(PreparedStatement statement) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() ? resultSet.getInt(1) : null;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Data access for the Waitlist table. Promotion books waiting patients with set-based statements like a
+// group reservation: the next waiting patients and the caregivers claimed for them are staged in temporary
+// tables on the connection, so everything from stage() to drop() must run in one transaction.
+public class WaitlistDao {
+
+    // first come, first served by default, WaitlistOrder=priority serves higher priorities first
+    private static final boolean PRIORITY_ORDER = Util.getSetting("WaitlistOrder", "fifo")
+            .equalsIgnoreCase("priority");
+    private static final String ORDER = PRIORITY_ORDER ? "Priority DESC, Waitlist_id" : "Waitlist_id";
+
+    private static final String JOIN = "INSERT INTO Waitlist (Patient_name, Vaccine_name, Time, Priority) " +
+            "SELECT ?, ?, ?, 0 WHERE NOT EXISTS (SELECT 1 FROM Waitlist WITH (UPDLOCK, HOLDLOCK) " +
+            "WHERE Time = ? AND Vaccine_name = ? AND Patient_name = ?)";
+    private static final String LEAVE = "DELETE FROM Waitlist WHERE Time = ? AND Vaccine_name = ? " +
+            "AND Patient_name = ?";
+    private static final String SET_PRIORITY = "UPDATE Waitlist SET Priority = ? WHERE Time = ? " +
+            "AND Vaccine_name = ? AND Patient_name = ?";
+    private static final String COUNT = "SELECT COUNT(*) FROM Waitlist WHERE Time = ? AND Vaccine_name = ?";
+    private static final String IS_BOOKED = "SELECT COUNT(*) FROM Appointments WHERE Time = ? " +
+            "AND Vaccine_name = ? AND Patient_name = ?";
+    private static final String BOOKED = "EXISTS (SELECT 1 FROM Appointments A WHERE A.Time = Waitlist.Time " +
+            "AND A.Vaccine_name = Waitlist.Vaccine_name AND A.Patient_name = Waitlist.Patient_name)";
+    private static final String SELECT_VACCINES = "SELECT DISTINCT Vaccine_name FROM Waitlist WHERE Time = ? " +
+            "ORDER BY Vaccine_name";
+    private static final String SELECT_DATES = "SELECT DISTINCT Time FROM Waitlist WHERE Vaccine_name = ? " +
+            "ORDER BY Time";
+
+    private static final String CREATE_WAITING = "CREATE TABLE #PromotedPatients " +
+            "(Seq int PRIMARY KEY, Waitlist_id int, Patient_name varchar(255))";
+    private static final String CREATE_CAREGIVERS = "CREATE TABLE #PromotedCaregivers " +
+            "(Seq int IDENTITY(1, 1) PRIMARY KEY, Caregiver_name varchar(255))";
+    // patients who booked the date and vaccine themselves since joining don't need to wait any more
+    private static final String REMOVE_ALREADY_BOOKED = "DELETE FROM Waitlist WHERE Time = ? AND Vaccine_name = ? " +
+            "AND " + BOOKED;
+    // the range lock keeps patients from joining ahead of the staged ones until the promotion commits
+    private static final String STAGE = "INSERT INTO #PromotedPatients (Seq, Waitlist_id, Patient_name) " +
+            "SELECT TOP (?) ROW_NUMBER() OVER (ORDER BY " + ORDER + "), Waitlist_id, Patient_name " +
+            "FROM Waitlist WITH (UPDLOCK, HOLDLOCK) WHERE Time = ? AND Vaccine_name = ? AND NOT " + BOOKED +
+            " ORDER BY " + ORDER;
+    // same locking as a single reservation, for up to n caregivers at once
+    private static final String CLAIM = "WITH Free AS (SELECT TOP (?) Time, Username FROM Availabilities " +
+            "WITH (UPDLOCK, READPAST, ROWLOCK) WHERE Time = ? ORDER BY Username) " +
+            "DELETE FROM Free OUTPUT DELETED.Username INTO #PromotedCaregivers (Caregiver_name)";
+    // pair the staged patients, in waitlist order, with the claimed caregivers
+    private static final String BOOK = "INSERT INTO Appointments (Patient_name, Caregiver_name, Vaccine_name, " +
+            "Time) OUTPUT INSERTED.Appointment_id, INSERTED.Patient_name, INSERTED.Caregiver_name, " +
+            "INSERTED.Vaccine_name, INSERTED.Time SELECT P.Patient_name, C.Caregiver_name, ?, ? " +
+            "FROM #PromotedPatients P JOIN #PromotedCaregivers C ON P.Seq = C.Seq";
+    private static final String REMOVE_BOOKED = "DELETE FROM Waitlist WHERE Waitlist_id IN " +
+            "(SELECT P.Waitlist_id FROM #PromotedPatients P JOIN #PromotedCaregivers C ON P.Seq = C.Seq)";
+    private static final String DROP = "DROP TABLE #PromotedPatients, #PromotedCaregivers";
+
+    private final ConnectionManager cm;
+
+    public WaitlistDao(ConnectionManager cm) {
+        this.cm = cm;
+    }
+
+    public static boolean isPriorityOrder() {
+        return PRIORITY_ORDER;
+    }
+
+    // Returns false if the patient is already waiting for this date and vaccine
+    public boolean join(String patientName, String vaccineName, Date time) throws SQLException {
+        PreparedStatement statement = cm.prepare(JOIN);
+        statement.setString(1, patientName);
+        statement.setString(2, vaccineName);
+        statement.setDate(3, time);
+        statement.setDate(4, time);
+        statement.setString(5, vaccineName);
+        statement.setString(6, patientName);
+        return statement.executeUpdate() > 0;
+    }
+
+    // Whether the patient already has an appointment for this date and vaccine
+    public boolean isBooked(String patientName, String vaccineName, Date time) throws SQLException {
+        PreparedStatement statement = cm.prepare(IS_BOOKED);
+        statement.setDate(1, time);
+        statement.setString(2, vaccineName);
+        statement.setString(3, patientName);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1) > 0;
+        }
+    }
+
+    // Returns false if the patient wasn't waiting for this date and vaccine
+    public boolean leave(String patientName, String vaccineName, Date time) throws SQLException {
+        PreparedStatement statement = cm.prepare(LEAVE);
+        statement.setDate(1, time);
+        statement.setString(2, vaccineName);
+        statement.setString(3, patientName);
+        return statement.executeUpdate() > 0;
+    }
+
+    public boolean setPriority(String patientName, String vaccineName, Date time, int priority)
+            throws SQLException {
+        PreparedStatement statement = cm.prepare(SET_PRIORITY);
+        statement.setInt(1, priority);
+        statement.setDate(2, time);
+        statement.setString(3, vaccineName);
+        statement.setString(4, patientName);
+        return statement.executeUpdate() > 0;
+    }
+
+    public int count(Date time, String vaccineName) throws SQLException {
+        PreparedStatement statement = cm.prepare(COUNT);
+        statement.setDate(1, time);
+        statement.setString(2, vaccineName);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    // Vaccines someone is waiting for on a date
+    public List<String> getWaitingVaccines(Date time) throws SQLException {
+        PreparedStatement statement = cm.prepare(SELECT_VACCINES);
+        statement.setDate(1, time);
+        List<String> vaccines = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                vaccines.add(resultSet.getString(1));
+            }
+        }
+        return vaccines;
+    }
+
+    // Dates someone is waiting for a vaccine on
+    public List<Date> getWaitingDates(String vaccineName) throws SQLException {
+        PreparedStatement statement = cm.prepare(SELECT_DATES);
+        statement.setString(1, vaccineName);
+        List<Date> dates = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                dates.add(resultSet.getDate(1));
+            }
+        }
+        return dates;
+    }
+
+    // Stage the next n waiting patients in waitlist order, returns how many there were. Patients who
+    // already have an appointment for the date and vaccine are taken off the waitlist instead.
+    public int stage(Date time, String vaccineName, int n) throws SQLException {
+        PreparedStatement remove = cm.prepare(REMOVE_ALREADY_BOOKED);
+        remove.setDate(1, time);
+        remove.setString(2, vaccineName);
+        remove.executeUpdate();
+        cm.execute(CREATE_WAITING);
+        cm.execute(CREATE_CAREGIVERS);
+        PreparedStatement statement = cm.prepare(STAGE);
+        statement.setInt(1, n);
+        statement.setDate(2, time);
+        statement.setString(3, vaccineName);
+        return statement.executeUpdate();
+    }
+
+    // Claim up to n caregivers free on a date, returns how many were claimed
+    public int claim(Date time, int n) throws SQLException {
+        PreparedStatement statement = cm.prepare(CLAIM);
+        statement.setInt(1, n);
+        statement.setDate(2, time);
+        return statement.executeUpdate();
+    }
+
+    // Book one claimed caregiver for each staged patient, as far as they go, and take the booked
+    // patients off the waitlist
+    public List<AppointmentDao.Row> book(String vaccineName, Date time) throws SQLException {
+        PreparedStatement statement = cm.prepare(BOOK);
+        statement.setString(1, vaccineName);
+        statement.setDate(2, time);
+        List<AppointmentDao.Row> booked = AppointmentDao.readRows(statement);
+        cm.prepare(REMOVE_BOOKED).executeUpdate();
+        return booked;
+    }
+
+    public void drop() throws SQLException {
+        cm.execute(DROP);
+    }
+}
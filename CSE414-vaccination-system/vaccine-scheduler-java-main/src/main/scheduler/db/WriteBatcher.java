@@ -0,0 +1,151 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Coalesces single-row writes of one statement, submitted concurrently by many sessions, into
+// JDBC batches. A batch is flushed once it reaches BatchMaxSize rows or BatchWindowMs after its
+// first row arrived, whichever comes first. Each caller gets its own row's update count back.
+public class WriteBatcher {
+
+    private static final int MAX_BATCH_SIZE = Util.getIntSetting("BatchMaxSize", 500);
+    private static final long FLUSH_WINDOW_MS = Util.getIntSetting("BatchWindowMs", 2);
+
+    private final String sql;
+    private List<PendingWrite> pending = new ArrayList<>();
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+
+    public WriteBatcher(String sql) {
+        this.sql = sql;
+    }
+
+    public CompletableFuture<Integer> submit(Object... params) {
+        PendingWrite write = new PendingWrite(params);
+        List<PendingWrite> full = null;
+        boolean first;
+        synchronized (this) {
+            pending.add(write);
+            first = pending.size() == 1;
+            if (pending.size() >= MAX_BATCH_SIZE || FLUSH_WINDOW_MS <= 0) {
+                full = pending;
+                pending = new ArrayList<>();
+            }
+        }
+        if (full != null) {
+            List<PendingWrite> batch = full;
+            DatabaseExecutor.execute(() -> flush(batch));
+        } else if (first) {
+            DatabaseExecutor.timer.schedule(this::flushPending, FLUSH_WINDOW_MS, TimeUnit.MILLISECONDS);
+        }
+        return write.result;
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    private void flushPending() {
+        List<PendingWrite> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        DatabaseExecutor.execute(() -> flush(batch));
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        batches.incrementAndGet();
+        rows.addAndGet(batch.size());
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            PreparedStatement statement = cm.prepare(sql);
+            if (batch.size() == 1) {
+                bind(statement, batch.get(0).params);
+                batch.get(0).result.complete(statement.executeUpdate());
+                return;
+            }
+            try {
+                complete(batch, write(cm, statement, batch));
+            } catch (BatchUpdateException e) {
+                // one bad row (e.g. a duplicate key) must only fail its own caller, so retry one by one
+                cm.rollback();
+                statement.clearBatch();
+                executeIndividually(cm, statement, batch);
+            }
+        } catch (SQLException e) {
+            for (PendingWrite write : batch) {
+                write.result.completeExceptionally(e);
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Write the rows in one transaction, returns each row's update count
+    private int[] write(ConnectionManager cm, PreparedStatement statement, List<PendingWrite> batch)
+            throws SQLException {
+        cm.beginTransaction();
+        for (PendingWrite write : batch) {
+            bind(statement, write.params);
+            statement.addBatch();
+        }
+        int[] counts = statement.executeBatch();
+        cm.commit();
+        return counts;
+    }
+
+    private void executeIndividually(ConnectionManager cm, PreparedStatement statement, List<PendingWrite> batch) {
+        for (PendingWrite write : batch) {
+            try {
+                complete(List.of(write), write(cm, statement, List.of(write)));
+            } catch (SQLException e) {
+                try {
+                    cm.rollback();
+                    statement.clearBatch();
+                } catch (SQLException ignored) {
+                    // a broken connection is caught by validation the next time it is borrowed
+                }
+                write.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static void complete(List<PendingWrite> batch, int[] counts) {
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).result.complete(counts[i]);
+        }
+    }
+
+    private static void bind(PreparedStatement statement, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            statement.setObject(i + 1, params[i]);
+        }
+    }
+
+    private static class PendingWrite {
+        private final Object[] params;
+        private final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        private PendingWrite(Object[] params) {
+            this.params = params;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package scheduler.events;
+
+import scheduler.db.AppointmentDao;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.time.Instant;
+import java.time.LocalDate;
+
+// One committed change to appointments, availability or doses. A booking also takes one dose and the
+// caregiver's availability for the date, and a cancellation gives both back, without separate
+// availability or dose events, so stock and open slots can be followed from the events alone.
+public class ChangeEvent {
+
+    public enum Type {
+        APPOINTMENT_BOOKED,
+        APPOINTMENT_CANCELLED,
+        AVAILABILITY_ADDED,
+        AVAILABILITY_REMOVED,
+        DOSES_CHANGED
+    }
+
+    private static final Type[] TYPES = Type.values();
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    private final Type type;
+    private final long timestamp;
+    private final int appointmentId;
+    private final String patientName;
+    private final String caregiverName;
+    private final String vaccineName;
+    private final Date time;
+    private final int doses;
+    // set when the bus hands the event on, in publishing order
+    private long sequence;
+
+    private ChangeEvent(Type type, long timestamp, int appointmentId, String patientName, String caregiverName,
+                        String vaccineName, Date time, int doses) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.appointmentId = appointmentId;
+        this.patientName = patientName;
+        this.caregiverName = caregiverName;
+        this.vaccineName = vaccineName;
+        this.time = time;
+        this.doses = doses;
+    }
+
+    public static ChangeEvent booked(AppointmentDao.Row appointment) {
+        return booked(appointment.getAppointmentId(), appointment.getPatientName(),
+                appointment.getCaregiverName(), appointment.getVaccineName(), appointment.getTime());
+    }
+
+    public static ChangeEvent booked(int appointmentId, String patientName, String caregiverName,
+                                     String vaccineName, Date time) {
+        return new ChangeEvent(Type.APPOINTMENT_BOOKED, System.currentTimeMillis(), appointmentId, patientName,
+                caregiverName, vaccineName, time, 0);
+    }
+
+    public static ChangeEvent cancelled(AppointmentDao.Row appointment) {
+        return new ChangeEvent(Type.APPOINTMENT_CANCELLED, System.currentTimeMillis(),
+                appointment.getAppointmentId(), appointment.getPatientName(), appointment.getCaregiverName(),
+                appointment.getVaccineName(), appointment.getTime(), 0);
+    }
+
+    public static ChangeEvent availabilityAdded(Date time, String caregiverName) {
+        return new ChangeEvent(Type.AVAILABILITY_ADDED, System.currentTimeMillis(), 0, null, caregiverName, null,
+                time, 0);
+    }
+
+    public static ChangeEvent availabilityRemoved(Date time, String caregiverName) {
+        return new ChangeEvent(Type.AVAILABILITY_REMOVED, System.currentTimeMillis(), 0, null, caregiverName,
+                null, time, 0);
+    }
+
+    // delta is the change in the vaccine's doses, a new vaccine's delta is its initial stock
+    public static ChangeEvent dosesChanged(String vaccineName, int delta) {
+        return new ChangeEvent(Type.DOSES_CHANGED, System.currentTimeMillis(), 0, null, null, vaccineName, null,
+                delta);
+    }
+
+    // Getters
+    public Type getType() {
+        return type;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    // Milliseconds since the epoch when the change was published
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    // 0 unless the event is about an appointment
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getPatientName() {
+        return patientName;
+    }
+
+    public String getCaregiverName() {
+        return caregiverName;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    // The dose delta of a DOSES_CHANGED event
+    public int getDoses() {
+        return doses;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    // Serialized size, without the sequence number that the log keeps in its record header
+    int size() {
+        return 1 + 8 + 4 + size(patientName) + size(caregiverName) + size(vaccineName) + 4 + 4;
+    }
+
+    void writeTo(ByteBuffer out) {
+        out.put((byte) type.ordinal());
+        out.putLong(timestamp);
+        out.putInt(appointmentId);
+        writeString(out, patientName);
+        writeString(out, caregiverName);
+        writeString(out, vaccineName);
+        out.putInt(time == null ? NO_DATE : (int) time.toLocalDate().toEpochDay());
+        out.putInt(doses);
+    }
+
+    static ChangeEvent readFrom(ByteBuffer in, long sequence) {
+        Type type = TYPES[in.get()];
+        long timestamp = in.getLong();
+        int appointmentId = in.getInt();
+        String patientName = readString(in);
+        String caregiverName = readString(in);
+        String vaccineName = readString(in);
+        int day = in.getInt();
+        Date time = day == NO_DATE ? null : Date.valueOf(LocalDate.ofEpochDay(day));
+        ChangeEvent event = new ChangeEvent(type, timestamp, appointmentId, patientName, caregiverName, vaccineName,
+                time, in.getInt());
+        event.sequence = sequence;
+        return event;
+    }
+
+    private static int size(String value) {
+        return 2 + (value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    // length-prefixed UTF-8, a length of -1 for null
+    private static void writeString(ByteBuffer out, String value) {
+        if (value == null) {
+            out.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        short length = in.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append('#').append(sequence).append(' ').append(Instant.ofEpochMilli(timestamp)).append(' ')
+                .append(type);
+        if (appointmentId != 0) {
+            text.append(" appointment=").append(appointmentId);
+        }
+        if (patientName != null) {
+            text.append(" patient=").append(patientName);
+        }
+        if (caregiverName != null) {
+            text.append(" caregiver=").append(caregiverName);
+        }
+        if (vaccineName != null) {
+            text.append(" vaccine=").append(vaccineName);
+        }
+        if (time != null) {
+            text.append(" date=").append(time);
+        }
+        if (type == Type.DOSES_CHANGED) {
+            text.append(" doses=").append(doses > 0 ? "+" : "").append(doses);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package scheduler.events;
+
+import scheduler.util.Util;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// In-process bus for change events. The model classes publish after each change commits; publishing only
+// puts the event on a lock-free ring, and one dispatcher thread numbers the events, appends them to the
+// event log in EventLogDir (if set) and hands them to the subscribers, in that order. A full ring makes
+// publishers spin until the dispatcher catches up rather than lose events, so subscribers should be quick.
+//
+// Nothing is published until start() is called, or while neither a log nor a subscriber wants the events.
+public class EventBus {
+
+    private static final String LOG_DIR = Util.getSetting("EventLogDir", null);
+    private static final int SEGMENT_BYTES = Util.getIntSetting("EventLogSegmentMB", 64) << 20;
+    private static final int RING_SIZE = Util.getIntSetting("EventRingSize", 65536);
+    private static final long IDLE_PARK_NANOS = 100_000;
+
+    private static final EventRing ring = new EventRing(RING_SIZE);
+    private static final List<Consumer<ChangeEvent>> subscribers = new CopyOnWriteArrayList<>();
+    // times a publisher found the ring full and had to wait
+    private static final AtomicLong stalls = new AtomicLong();
+
+    private static volatile boolean running = false;
+    private static Thread dispatcher = null;
+    private static EventLog log = null;
+    private static volatile long nextSequence = 1;
+
+    private EventBus() {
+    }
+
+    // Open the event log if EventLogDir is set and start dispatching
+    public static synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (LOG_DIR != null) {
+            try {
+                log = EventLog.open(Paths.get(LOG_DIR), SEGMENT_BYTES);
+                nextSequence = log.getNextSequence();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (log == null && subscribers.isEmpty()) {
+            return;
+        }
+        running = true;
+        dispatcher = new Thread(EventBus::dispatch, "event-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    // Deliver every event dispatched from now on to subscriber, on the dispatcher thread
+    public static void subscribe(Consumer<ChangeEvent> subscriber) {
+        subscribers.add(subscriber);
+        start();
+    }
+
+    public static void unsubscribe(Consumer<ChangeEvent> subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    public static void publish(ChangeEvent event) {
+        if (!running) {
+            return;
+        }
+        if (!ring.offer(event)) {
+            stalls.incrementAndGet();
+            while (!ring.offer(event)) {
+                Thread.onSpinWait();
+                Thread.yield();
+            }
+        }
+    }
+
+    // Dispatch what has been published so far, then stop and close the log
+    public static synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            log = null;
+        }
+    }
+
+    public static String getStats() {
+        return ring.getOffered() + " published, " + ring.size() + " waiting, " + stalls.get() +
+                " publisher stalls, next sequence " + nextSequence +
+                (LOG_DIR == null ? ", no event log" : ", logged to " + LOG_DIR);
+    }
+
+    private static void dispatch() {
+        // after shutdown() the ring is drained before the thread ends
+        while (running || ring.size() > 0) {
+            ChangeEvent event = ring.poll();
+            if (event == null) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            try {
+                event.setSequence(log != null ? log.append(event) : nextSequence);
+            } catch (IOException e) {
+                e.printStackTrace();
+                event.setSequence(nextSequence);
+            }
+            nextSequence = event.getSequence() + 1;
+            for (Consumer<ChangeEvent> subscriber : subscribers) {
+                try {
+                    subscriber.accept(event);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
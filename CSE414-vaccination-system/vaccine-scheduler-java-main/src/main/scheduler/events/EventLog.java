@@ -0,0 +1,263 @@
+package scheduler.events;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Append-only log of change events in memory-mapped segment files, events-<first sequence>.log, so
+// consumers can replay or tail the events from any sequence number without the database. Every record is
+//   [payload length: 4 bytes][CRC32 of sequence and payload: 4 bytes][sequence number: 8 bytes][payload]
+// and a length of 0 marks the end of what has been written; segments are created zero-filled. The
+// length is written last, so a reader mapping the same file never sees a half-written record as
+// complete. A record torn by a crash fails its checksum and is cut off when the log is reopened.
+public class EventLog implements Closeable {
+
+    private static final int HEADER_LENGTH = 16;
+    private static final String PREFIX = "events-";
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long nextSequence = 1;
+
+    private final ByteBuffer payload = ByteBuffer.allocate(1 << 12);
+    private final ByteBuffer sequenceBytes = ByteBuffer.allocate(8);
+    private final CRC32 crc = new CRC32();
+
+    private EventLog(Path directory, int segmentBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+    }
+
+    // Open the log in directory for appending after its last intact record, creating it if needed
+    public static EventLog open(Path directory, int segmentBytes) throws IOException {
+        Files.createDirectories(directory);
+        EventLog log = new EventLog(directory, segmentBytes);
+        List<Path> segments = segments(directory);
+        if (segments.isEmpty()) {
+            log.startSegment();
+        } else {
+            Path last = segments.get(segments.size() - 1);
+            log.map(last);
+            log.nextSequence = firstSequence(last);
+            CRC32 check = new CRC32();
+            int end = 0;
+            int next;
+            while ((next = readRecord(log.segment, end, check)) > end) {
+                log.nextSequence = log.segment.getLong(end + 8) + 1;
+                end = next;
+            }
+            log.segment.position(end);
+            // clear a torn record so readers and the next append don't trip over its remains
+            if (end + HEADER_LENGTH <= log.segment.limit()) {
+                int torn = Math.max(0, log.segment.getInt(end));
+                for (int i = end; i < Math.min(log.segment.limit(), end + HEADER_LENGTH + torn); i++) {
+                    log.segment.put(i, (byte) 0);
+                }
+            }
+        }
+        return log;
+    }
+
+    // Returns the event's sequence number. Only one thread may append.
+    public long append(ChangeEvent event) throws IOException {
+        int length = event.size();
+        if (length > payload.capacity()) {
+            throw new IOException("Event of " + length + " bytes is too large for the log");
+        }
+        // keep room for the end marker after the record
+        if (segment.remaining() < HEADER_LENGTH + length + 4) {
+            startSegment();
+        }
+        long sequence = nextSequence++;
+        payload.clear();
+        event.writeTo(payload);
+        payload.flip();
+        sequenceBytes.clear();
+        sequenceBytes.putLong(0, sequence);
+        crc.reset();
+        crc.update(sequenceBytes);
+        crc.update(payload.duplicate());
+
+        int start = segment.position();
+        segment.putInt(start + 4, (int) crc.getValue());
+        segment.putLong(start + 8, sequence);
+        segment.put(start + HEADER_LENGTH, payload, 0, length);
+        segment.putInt(start, length);
+        segment.position(start + HEADER_LENGTH + length);
+        return sequence;
+    }
+
+    // The sequence number the next event will get
+    public long getNextSequence() {
+        return nextSequence;
+    }
+
+    // Write the mapped pages to disk
+    public void force() {
+        segment.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        segment.force();
+        channel.close();
+    }
+
+    // Pass every intact event with a sequence number of at least from to consumer, in order.
+    // Returns the sequence number after the last event read.
+    public static long read(Path directory, long from, Consumer<ChangeEvent> consumer) throws IOException {
+        try (Reader reader = new Reader(directory, from)) {
+            reader.poll(consumer);
+            return reader.getNext();
+        }
+    }
+
+    // Reads a log from a sequence number on and remembers where it stopped, so polling again only reads
+    // the records written since. Safe to use while another process appends to the log.
+    public static class Reader implements Closeable {
+        private final Path directory;
+        private long next;
+        private Path current = null;
+        private FileChannel file = null;
+        private MappedByteBuffer segment = null;
+        private int position = 0;
+        private final CRC32 check = new CRC32();
+
+        public Reader(Path directory, long from) {
+            this.directory = directory;
+            this.next = from;
+        }
+
+        // The sequence number of the next event to read
+        public long getNext() {
+            return next;
+        }
+
+        // Pass the events written since the last poll to consumer, returns how many there were
+        public int poll(Consumer<ChangeEvent> consumer) throws IOException {
+            int read = 0;
+            while (true) {
+                if (segment == null && !openNext()) {
+                    return read;
+                }
+                int end = readRecord(segment, position, check);
+                while (end > position) {
+                    long sequence = segment.getLong(position + 8);
+                    if (sequence >= next) {
+                        consumer.accept(ChangeEvent.readFrom(segment.slice(position + HEADER_LENGTH,
+                                end - position - HEADER_LENGTH), sequence));
+                        next = sequence + 1;
+                        read++;
+                    }
+                    position = end;
+                    end = readRecord(segment, position, check);
+                }
+                // the writer only starts a new segment once this one is full, so move on if there is one
+                if (!openNext()) {
+                    return read;
+                }
+            }
+        }
+
+        // Switch to the segment holding next, or the one after the current segment.
+        // Returns false if there is none yet.
+        private boolean openNext() throws IOException {
+            List<Path> segments = segments(directory);
+            Path target = null;
+            for (Path candidate : segments) {
+                if (current != null) {
+                    if (candidate.compareTo(current) > 0) {
+                        target = candidate;
+                        break;
+                    }
+                } else if (target == null || firstSequence(candidate) <= next) {
+                    // the last segment that starts at or before next, or else the first one
+                    target = candidate;
+                }
+            }
+            if (target == null) {
+                return false;
+            }
+            close();
+            current = target;
+            file = FileChannel.open(target, StandardOpenOption.READ);
+            segment = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            position = 0;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+        }
+    }
+
+    // Returns where the intact record at position ends, or position itself at the end marker, at a
+    // damaged record or at one that is still being written
+    private static int readRecord(ByteBuffer segment, int position, CRC32 check) {
+        if (position + HEADER_LENGTH > segment.limit()) {
+            return position;
+        }
+        int length = segment.getInt(position);
+        if (length <= 0 || position + HEADER_LENGTH + length > segment.limit()) {
+            return position;
+        }
+        check.reset();
+        check.update(segment.slice(position + 8, 8));
+        check.update(segment.slice(position + HEADER_LENGTH, length));
+        if ((int) check.getValue() != segment.getInt(position + 4)) {
+            return position;
+        }
+        return position + HEADER_LENGTH + length;
+    }
+
+    private void startSegment() throws IOException {
+        if (channel != null) {
+            segment.force();
+            channel.close();
+        }
+        map(directory.resolve(String.format("%s%019d%s", PREFIX, nextSequence, SUFFIX)));
+    }
+
+    private void map(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), segmentBytes));
+    }
+
+    // The directory's segment files, oldest first
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).sorted().forEach(segments::add);
+        }
+        return segments;
+    }
+
+    private static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
@@ -0,0 +1,78 @@
+package scheduler.events;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Bounded lock-free queue from many publishing threads to the one dispatcher thread. Each slot has a
+// sequence number saying whose turn it is: a producer claims a position with one CAS on the tail, fills
+// the slot and then releases it by advancing the slot's sequence, and the consumer takes slots in order
+// once they are released. Nobody ever blocks on a lock, a full ring just makes offer() return false.
+class EventRing {
+
+    private final ChangeEvent[] slots;
+    // position + 1 once the slot at position is filled, position + capacity once it is free again
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // only the consumer touches it
+    private long head = 0;
+
+    // capacity is rounded up to a power of two
+    EventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new ChangeEvent[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // Returns false if the ring is full
+    boolean offer(ChangeEvent event) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // the consumer hasn't freed this slot from the previous lap yet
+                return false;
+            } else {
+                // another producer claimed it first
+                position = tail.get();
+            }
+        }
+        int index = (int) position & mask;
+        slots[index] = event;
+        sequences.lazySet(index, position + 1);
+        return true;
+    }
+
+    // Returns null if nothing is ready. Only one thread may call it.
+    ChangeEvent poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        ChangeEvent event = slots[index];
+        slots[index] = null;
+        sequences.lazySet(index, head + slots.length);
+        head++;
+        return event;
+    }
+
+    // How many events have been offered in total
+    long getOffered() {
+        return tail.get();
+    }
+
+    // How many events are waiting, approximately while producers are running
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+}
@@ -0,0 +1,35 @@
+package scheduler.events;
+
+import java.nio.file.Paths;
+
+// Prints the change events in an event log, one per line, from a sequence number on. With --follow it
+// keeps polling for new events like tail -f, reading the log files directly rather than the database.
+//
+// usage: EventTail <event log directory> [from sequence, default 1] [--follow]
+public class EventTail {
+
+    private static final long POLL_MS = 200;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: EventTail <event log directory> [from sequence] [--follow]");
+            return;
+        }
+        long from = 1;
+        boolean follow = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--follow")) {
+                follow = true;
+            } else {
+                from = Long.parseLong(args[i]);
+            }
+        }
+        try (EventLog.Reader reader = new EventLog.Reader(Paths.get(args[0]), from)) {
+            reader.poll(System.out::println);
+            while (follow) {
+                Thread.sleep(POLL_MS);
+                reader.poll(System.out::println);
+            }
+        }
+    }
+}
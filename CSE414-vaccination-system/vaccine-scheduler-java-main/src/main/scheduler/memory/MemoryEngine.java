@@ -0,0 +1,924 @@
+package scheduler.memory;
+
+import scheduler.db.AppointmentDao;
+import scheduler.db.DatabaseExecutor;
+import scheduler.db.UserDao;
+import scheduler.db.WaitlistDao;
+import scheduler.util.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Keeps all of the scheduler's data in memory instead of a database, for kiosks and simulations that
+// need very high throughput. Selected with Storage=memory; the models then call this engine instead of
+// the DAOs.
+//
+// Every change is applied in memory and appended to a write-ahead log in MemoryDir. The log is written
+// out every WalFlushMs (and fsynced with WalFsync=1), so a crash loses at most that window of changes.
+// After SnapshotEveryRecords records, and on shutdown, the whole state is written to a snapshot and the
+// log starts over. Startup loads the snapshot and replays the log records that came after it.
+public class MemoryEngine {
+
+    private static final boolean ENABLED = Util.getSetting("Storage", "sqlserver").equalsIgnoreCase("memory");
+    private static final int FLUSH_MS = Util.getIntSetting("WalFlushMs", 10);
+    private static final boolean FSYNC = Util.getIntSetting("WalFsync", 0) == 1;
+    private static final long SNAPSHOT_EVERY = Util.getIntSetting("SnapshotEveryRecords", 1000000);
+    private static final int SNAPSHOT_MAGIC = 0x5343484d;
+
+    // log record types
+    private static final byte CAREGIVER = 1;
+    private static final byte PATIENT = 2;
+    private static final byte CAREGIVER_HASH = 3;
+    private static final byte PATIENT_HASH = 4;
+    private static final byte AVAILABILITY = 5;
+    private static final byte VACCINE = 6;
+    private static final byte DOSES = 7;
+    private static final byte APPOINTMENT = 8;
+    private static final byte CANCEL = 9;
+    private static final byte WITHDRAW = 10;
+    private static final byte WAIT = 11;
+    private static final byte UNWAIT = 12;
+    private static final byte WAIT_PRIORITY = 13;
+
+    private static final Comparator<Waiting> WAITLIST_ORDER = WaitlistDao.isPriorityOrder()
+            ? Comparator.comparingInt((Waiting waiting) -> -waiting.priority).thenComparingInt(waiting -> waiting.id)
+            : Comparator.comparingInt(waiting -> waiting.id);
+
+    private static MemoryEngine engine = null;
+
+    private final Path snapshotFile;
+    private final Path logFile;
+
+    // every change is applied and logged while holding this lock, so the log replays in the order the
+    // changes were made. Reads don't take it.
+    private final Object writeLock = new Object();
+    private final Map<String, UserDao.Credentials> caregivers = new ConcurrentHashMap<>();
+    private final Map<String, UserDao.Credentials> patients = new ConcurrentHashMap<>();
+    private final Map<String, Integer> vaccines = new ConcurrentHashMap<>();
+    // free caregivers by epoch day, in name order
+    private final ConcurrentSkipListMap<Integer, NavigableSet<String>> days = new ConcurrentSkipListMap<>();
+    private final Map<Integer, AppointmentDao.Row> appointments = new ConcurrentHashMap<>();
+    private final Map<String, NavigableMap<Integer, AppointmentDao.Row>> byPatient = new ConcurrentHashMap<>();
+    private final Map<String, NavigableMap<Integer, AppointmentDao.Row>> byCaregiver = new ConcurrentHashMap<>();
+    private int nextId = 1;
+    // waiting patients by epoch day and vaccine, in promotion order
+    private final ConcurrentSkipListMap<Integer, Map<String, NavigableSet<Waiting>>> waitlists =
+            new ConcurrentSkipListMap<>();
+    private int nextWaitingId = 1;
+    // one shared instance of every name and date, so each appointment doesn't hold its own copies
+    private final Map<String, String> names = new ConcurrentHashMap<>();
+    private final Map<Integer, Date> dates = new ConcurrentHashMap<>();
+
+    private WriteAheadLog log;
+    private volatile long snapshotSequence;
+    private ScheduledExecutorService flusher;
+
+    private MemoryEngine(Path directory) {
+        this.snapshotFile = directory.resolve("snapshot.bin");
+        this.logFile = directory.resolve("wal.log");
+    }
+
+    // True if the scheduler runs on this engine instead of a database
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    // The engine for MemoryDir, recovered from its snapshot and log on first use
+    public static synchronized MemoryEngine get() {
+        if (engine == null) {
+            try {
+                engine = open(Paths.get(Util.getSetting("MemoryDir", "scheduler-data")));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not recover the in-memory engine", e);
+            }
+        }
+        return engine;
+    }
+
+    public static synchronized void shutdown() {
+        if (engine != null) {
+            try {
+                engine.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            engine = null;
+        }
+    }
+
+    // Load the snapshot and log in directory, creating it if needed, and start logging to it
+    public static MemoryEngine open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        MemoryEngine memory = new MemoryEngine(directory);
+        memory.recover();
+        return memory;
+    }
+
+    // Run a call on the calling thread and hand back its outcome as a future, for the async model methods
+    public static <T> CompletableFuture<T> complete(DatabaseExecutor.DatabaseTask<T> task) {
+        try {
+            return CompletableFuture.completedFuture(task.run());
+        } catch (SQLException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public void addCaregiver(String username, byte[] salt, byte[] hash) throws SQLException {
+        addUser(caregivers, CAREGIVER, username, salt, hash);
+    }
+
+    public void addPatient(String username, byte[] salt, byte[] hash) throws SQLException {
+        addUser(patients, PATIENT, username, salt, hash);
+    }
+
+    private void addUser(Map<String, UserDao.Credentials> users, byte type, String username, byte[] salt,
+                         byte[] hash) throws SQLException {
+        synchronized (writeLock) {
+            if (users.putIfAbsent(username, new UserDao.Credentials(salt, hash)) != null) {
+                throw duplicate(username);
+            }
+            append(out -> {
+                out.writeByte(type);
+                out.writeUTF(username);
+                writeBytes(out, salt);
+                writeBytes(out, hash);
+            });
+        }
+    }
+
+    // Returns the stored salt and hash, or null if there is no such user
+    public UserDao.Credentials getCredentials(boolean caregiver, String username) {
+        return (caregiver ? caregivers : patients).get(username);
+    }
+
+    public void updateHash(boolean caregiver, String username, byte[] hash) throws SQLException {
+        synchronized (writeLock) {
+            if (!setHash(caregiver ? caregivers : patients, username, hash)) {
+                return;
+            }
+            append(out -> {
+                out.writeByte(caregiver ? CAREGIVER_HASH : PATIENT_HASH);
+                out.writeUTF(username);
+                writeBytes(out, hash);
+            });
+        }
+    }
+
+    private static boolean setHash(Map<String, UserDao.Credentials> users, String username, byte[] hash) {
+        UserDao.Credentials credentials = users.get(username);
+        if (credentials == null) {
+            return false;
+        }
+        users.put(username, new UserDao.Credentials(credentials.getSalt(), hash));
+        return true;
+    }
+
+    // Throws if the caregiver already has the date
+    public void addAvailability(Date time, String username) throws SQLException {
+        synchronized (writeLock) {
+            if (!caregivers.containsKey(username)) {
+                throw new SQLException("Caregiver " + username + " does not exist");
+            }
+            int day = day(time);
+            if (!free(day).add(username)) {
+                throw duplicate(username + " on " + time);
+            }
+            append(out -> {
+                out.writeByte(AVAILABILITY);
+                out.writeInt(day);
+                out.writeUTF(username);
+            });
+        }
+    }
+
+    // Returns the dates added; dates the caregiver already has are skipped
+    public List<Date> addAvailability(List<Date> times, String username) throws SQLException {
+        List<Date> added = new ArrayList<>();
+        synchronized (writeLock) {
+            for (Date time : times) {
+                try {
+                    addAvailability(time, username);
+                    added.add(time);
+                } catch (SQLIntegrityConstraintViolationException e) {
+                    // already uploaded
+                }
+            }
+        }
+        return added;
+    }
+
+    // Free caregivers on a date, by name
+    public List<String> getCaregivers(Date time) {
+        NavigableSet<String> free = days.get(day(time));
+        return free == null ? new ArrayList<>() : new ArrayList<>(free);
+    }
+
+    // Dates from start to end (inclusive) with at least one free caregiver, mapped to how many, by date
+    public Map<Date, Integer> getOpenDates(Date start, Date end) {
+        Map<Date, Integer> open = new LinkedHashMap<>();
+        for (Map.Entry<Integer, NavigableSet<String>> entry : days.subMap(day(start), true, day(end), true)
+                .entrySet()) {
+            int count = entry.getValue().size();
+            if (count > 0) {
+                open.put(date(entry.getKey()), count);
+            }
+        }
+        return open;
+    }
+
+    // Throws if the vaccine already exists
+    public void addVaccine(String name, int doses) throws SQLException {
+        synchronized (writeLock) {
+            if (vaccines.putIfAbsent(name, doses) != null) {
+                throw duplicate(name);
+            }
+            append(out -> {
+                out.writeByte(VACCINE);
+                out.writeUTF(name);
+                out.writeInt(doses);
+            });
+        }
+    }
+
+    // Returns the dose count, or null if there is no such vaccine
+    public Integer getDoses(String name) {
+        return vaccines.get(name);
+    }
+
+    // Vaccines with at least one dose, by name
+    public Map<String, Integer> getInStock() {
+        Map<String, Integer> inStock = new TreeMap<>();
+        vaccines.forEach((name, doses) -> {
+            if (doses > 0) {
+                inStock.put(name, doses);
+            }
+        });
+        return inStock;
+    }
+
+    // Returns the new dose count, or null if there is no such vaccine or it doesn't have enough doses
+    public Integer addDoses(String name, int delta) throws SQLException {
+        synchronized (writeLock) {
+            Integer doses = vaccines.get(name);
+            if (doses == null || doses + delta < 0) {
+                return null;
+            }
+            mergeDoses(name, delta);
+            return doses + delta;
+        }
+    }
+
+    // Apply a dose change, creating the vaccine if the change is positive.
+    // Returns false if it would leave the vaccine with negative doses.
+    public boolean mergeDoses(String name, int delta) throws SQLException {
+        synchronized (writeLock) {
+            if (!applyDoses(name, delta)) {
+                return false;
+            }
+            append(out -> {
+                out.writeByte(DOSES);
+                out.writeUTF(name);
+                out.writeInt(delta);
+            });
+            return true;
+        }
+    }
+
+    // Apply many dose changes, or none of them if any would leave a vaccine with negative doses.
+    // Throws IllegalArgumentException naming the first such vaccine.
+    public void mergeDoses(Map<String, Integer> deltas) throws SQLException {
+        synchronized (writeLock) {
+            for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+                if (vaccines.getOrDefault(delta.getKey(), 0) + delta.getValue() < 0) {
+                    throw new IllegalArgumentException("Not enough available doses of " + delta.getKey() + "!");
+                }
+            }
+            for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+                mergeDoses(delta.getKey(), delta.getValue());
+            }
+        }
+    }
+
+    private boolean applyDoses(String name, int delta) {
+        Integer doses = vaccines.get(name);
+        if (doses == null ? delta <= 0 : doses + delta < 0) {
+            return false;
+        }
+        vaccines.put(name, doses == null ? delta : doses + delta);
+        return true;
+    }
+
+    // Book the first free caregiver on a date and one dose of a vaccine.
+    // Throws IllegalStateException with a user-facing message if no caregiver or dose is left.
+    public AppointmentDao.Row reserve(String patientName, String vaccineName, Date time) throws SQLException {
+        synchronized (writeLock) {
+            NavigableSet<String> free = days.get(day(time));
+            if (free == null || free.isEmpty()) {
+                throw new IllegalStateException("No Caregiver is available!");
+            }
+            Integer doses = vaccines.get(vaccineName);
+            if (doses == null || doses < 1) {
+                throw new IllegalStateException("Not enough available doses!");
+            }
+            return book(nextId, patientName, free.pollFirst(), vaccineName, time);
+        }
+    }
+
+    // Book as many of the patients as there are free caregivers and doses for. Unknown patients are
+    // skipped. Returns the appointments made.
+    public List<AppointmentDao.Row> reserveGroup(List<String> patientNames, String vaccineName, Date time)
+            throws SQLException {
+        List<AppointmentDao.Row> booked = new ArrayList<>();
+        synchronized (writeLock) {
+            NavigableSet<String> free = days.get(day(time));
+            for (String patientName : patientNames) {
+                if (free == null || free.isEmpty() || vaccines.getOrDefault(vaccineName, 0) < 1) {
+                    break;
+                }
+                if (patients.containsKey(patientName)) {
+                    booked.add(book(nextId, patientName, free.pollFirst(), vaccineName, time));
+                }
+            }
+        }
+        return booked;
+    }
+
+    // How many of the names are existing patients
+    public int countPatients(Collection<String> patientNames) {
+        int known = 0;
+        for (String patientName : patientNames) {
+            if (patients.containsKey(patientName)) {
+                known++;
+            }
+        }
+        return known;
+    }
+
+    // The caregiver must already be taken off the date's free set
+    private AppointmentDao.Row book(int id, String patientName, String caregiverName, String vaccineName, Date time)
+            throws SQLException {
+        AppointmentDao.Row appointment = applyBooking(id, patientName, caregiverName, vaccineName, time);
+        append(out -> {
+            out.writeByte(APPOINTMENT);
+            out.writeInt(id);
+            out.writeUTF(patientName);
+            out.writeUTF(caregiverName);
+            out.writeUTF(vaccineName);
+            out.writeInt(day(time));
+        });
+        return appointment;
+    }
+
+    private AppointmentDao.Row applyBooking(int id, String patientName, String caregiverName, String vaccineName,
+                                            Date time) {
+        vaccines.merge(vaccineName, -1, Integer::sum);
+        AppointmentDao.Row appointment = new AppointmentDao.Row(id, name(patientName), name(caregiverName),
+                name(vaccineName), date(day(time)));
+        appointments.put(id, appointment);
+        byPatient.computeIfAbsent(patientName, k -> new ConcurrentSkipListMap<>()).put(id, appointment);
+        byCaregiver.computeIfAbsent(caregiverName, k -> new ConcurrentSkipListMap<>()).put(id, appointment);
+        nextId = Math.max(nextId, id + 1);
+        return appointment;
+    }
+
+    // Returns false if the patient is already waiting for the date and vaccine. Throws
+    // IllegalStateException with a user-facing message if they already have an appointment for it.
+    public boolean joinWaitlist(String patientName, String vaccineName, Date time) throws SQLException {
+        synchronized (writeLock) {
+            if (!patients.containsKey(patientName) || !vaccines.containsKey(vaccineName)) {
+                throw new SQLException("Patient " + patientName + " or vaccine " + vaccineName + " does not exist");
+            }
+            int day = day(time);
+            if (isBooked(patientName, vaccineName, day)) {
+                throw new IllegalStateException("You already have an appointment for " + vaccineName + " on " +
+                        time + "!");
+            }
+            if (findWaiting(day, vaccineName, patientName) != null) {
+                return false;
+            }
+            int id = nextWaitingId;
+            applyWait(id, day, vaccineName, patientName, 0);
+            append(out -> {
+                out.writeByte(WAIT);
+                out.writeInt(id);
+                out.writeInt(day);
+                out.writeUTF(vaccineName);
+                out.writeUTF(patientName);
+            });
+            return true;
+        }
+    }
+
+    // Returns false if the patient wasn't waiting for the date and vaccine
+    public boolean leaveWaitlist(String patientName, String vaccineName, Date time) throws SQLException {
+        synchronized (writeLock) {
+            int day = day(time);
+            if (applyUnwait(day, vaccineName, patientName) == null) {
+                return false;
+            }
+            logUnwait(day, vaccineName, patientName);
+            return true;
+        }
+    }
+
+    // Returns false if the patient isn't waiting for the date and vaccine
+    public boolean setWaitlistPriority(String patientName, String vaccineName, Date time, int priority)
+            throws SQLException {
+        synchronized (writeLock) {
+            int day = day(time);
+            if (!applyPriority(day, vaccineName, patientName, priority)) {
+                return false;
+            }
+            append(out -> {
+                out.writeByte(WAIT_PRIORITY);
+                out.writeInt(day);
+                out.writeUTF(vaccineName);
+                out.writeUTF(patientName);
+                out.writeInt(priority);
+            });
+            return true;
+        }
+    }
+
+    public int countWaiting(Date time, String vaccineName) {
+        NavigableSet<Waiting> waiting = waitlists.getOrDefault(day(time), Map.of()).get(vaccineName);
+        return waiting == null ? 0 : waiting.size();
+    }
+
+    // Vaccines someone is waiting for on a date, by name
+    public List<String> getWaitingVaccines(Date time) {
+        List<String> waiting = new ArrayList<>();
+        waitlists.getOrDefault(day(time), Map.of()).forEach((vaccineName, patientsWaiting) -> {
+            if (!patientsWaiting.isEmpty()) {
+                waiting.add(vaccineName);
+            }
+        });
+        waiting.sort(null);
+        return waiting;
+    }
+
+    // Dates someone is waiting for a vaccine on, by date
+    public List<Date> getWaitingDates(String vaccineName) {
+        List<Date> waiting = new ArrayList<>();
+        waitlists.forEach((day, byVaccine) -> {
+            NavigableSet<Waiting> patientsWaiting = byVaccine.get(vaccineName);
+            if (patientsWaiting != null && !patientsWaiting.isEmpty()) {
+                waiting.add(date(day));
+            }
+        });
+        return waiting;
+    }
+
+    // Book waiting patients, in waitlist order, for as long as there are free caregivers and doses.
+    // Returns the appointments made.
+    public List<AppointmentDao.Row> promote(Date time, String vaccineName) throws SQLException {
+        List<AppointmentDao.Row> booked = new ArrayList<>();
+        int day = day(time);
+        synchronized (writeLock) {
+            NavigableSet<Waiting> waiting = waitlists.getOrDefault(day, Map.of()).get(vaccineName);
+            NavigableSet<String> free = days.get(day);
+            while (waiting != null && !waiting.isEmpty() && free != null && !free.isEmpty() &&
+                    vaccines.getOrDefault(vaccineName, 0) > 0) {
+                String patientName = waiting.pollFirst().patientName;
+                logUnwait(day, vaccineName, patientName);
+                // someone who booked the date and vaccine themselves since joining just leaves the waitlist
+                if (!isBooked(patientName, vaccineName, day)) {
+                    booked.add(book(nextId, patientName, free.pollFirst(), vaccineName, time));
+                }
+            }
+        }
+        return booked;
+    }
+
+    private boolean isBooked(String patientName, String vaccineName, int day) {
+        NavigableMap<Integer, AppointmentDao.Row> own = byPatient.get(patientName);
+        if (own == null) {
+            return false;
+        }
+        for (AppointmentDao.Row appointment : own.values()) {
+            if (appointment.getVaccineName().equals(vaccineName) && day(appointment.getTime()) == day) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Waiting findWaiting(int day, String vaccineName, String patientName) {
+        NavigableSet<Waiting> waiting = waitlists.getOrDefault(day, Map.of()).get(vaccineName);
+        if (waiting != null) {
+            for (Waiting entry : waiting) {
+                if (entry.patientName.equals(patientName)) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void applyWait(int id, int day, String vaccineName, String patientName, int priority) {
+        waitlists.computeIfAbsent(day, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(vaccineName, k -> new ConcurrentSkipListSet<>(WAITLIST_ORDER))
+                .add(new Waiting(id, name(patientName), priority));
+        nextWaitingId = Math.max(nextWaitingId, id + 1);
+    }
+
+    private Waiting applyUnwait(int day, String vaccineName, String patientName) {
+        Waiting entry = findWaiting(day, vaccineName, patientName);
+        if (entry != null) {
+            waitlists.get(day).get(vaccineName).remove(entry);
+        }
+        return entry;
+    }
+
+    private boolean applyPriority(int day, String vaccineName, String patientName, int priority) {
+        Waiting entry = applyUnwait(day, vaccineName, patientName);
+        if (entry == null) {
+            return false;
+        }
+        applyWait(entry.id, day, vaccineName, patientName, priority);
+        return true;
+    }
+
+    private void logUnwait(int day, String vaccineName, String patientName) throws SQLException {
+        append(out -> {
+            out.writeByte(UNWAIT);
+            out.writeInt(day);
+            out.writeUTF(vaccineName);
+            out.writeUTF(patientName);
+        });
+    }
+
+    // Returns the appointment, or null if there is no such appointment
+    public AppointmentDao.Row get(int appointmentId) {
+        return appointments.get(appointmentId);
+    }
+
+    // Cancel one of the user's appointments, freeing its caregiver and returning its dose.
+    // Returns the cancelled appointment, or null if the user has no such appointment.
+    public AppointmentDao.Row cancel(int appointmentId, String username, boolean caregiver) throws SQLException {
+        synchronized (writeLock) {
+            AppointmentDao.Row appointment = appointments.get(appointmentId);
+            if (appointment == null ||
+                    !(caregiver ? appointment.getCaregiverName() : appointment.getPatientName()).equals(username)) {
+                return null;
+            }
+            applyCancel(appointmentId);
+            append(out -> {
+                out.writeByte(CANCEL);
+                out.writeInt(appointmentId);
+            });
+            return appointment;
+        }
+    }
+
+    // Cancel all of a caregiver's appointments on a date, returning their doses, and withdraw the
+    // caregiver's availability for the date. Adds the cancelled appointments to cancelled and returns
+    // whether there was availability to withdraw, counting what the cancellations gave back.
+    public boolean cancelDay(String caregiverName, Date time, List<AppointmentDao.Row> cancelled)
+            throws SQLException {
+        int day = day(time);
+        synchronized (writeLock) {
+            NavigableMap<Integer, AppointmentDao.Row> own = byCaregiver.get(caregiverName);
+            if (own != null) {
+                for (AppointmentDao.Row appointment : new ArrayList<>(own.values())) {
+                    if (day(appointment.getTime()) == day) {
+                        cancelled.add(cancel(appointment.getAppointmentId(), caregiverName, true));
+                    }
+                }
+            }
+            NavigableSet<String> free = days.get(day);
+            if (free == null || !free.remove(caregiverName)) {
+                return false;
+            }
+            append(out -> {
+                out.writeByte(WITHDRAW);
+                out.writeInt(day);
+                out.writeUTF(caregiverName);
+            });
+            return true;
+        }
+    }
+
+    private AppointmentDao.Row applyCancel(int appointmentId) {
+        AppointmentDao.Row appointment = appointments.remove(appointmentId);
+        if (appointment == null) {
+            return null;
+        }
+        byPatient.get(appointment.getPatientName()).remove(appointmentId);
+        byCaregiver.get(appointment.getCaregiverName()).remove(appointmentId);
+        free(day(appointment.getTime())).add(appointment.getCaregiverName());
+        vaccines.merge(appointment.getVaccineName(), 1, Integer::sum);
+        return appointment;
+    }
+
+    // Up to limit of a user's appointments with ids after afterId and times from..to, by id
+    public List<AppointmentDao.Row> getPage(boolean caregiver, String username, int afterId, int limit, Date from,
+                                            Date to) {
+        List<AppointmentDao.Row> page = new ArrayList<>();
+        NavigableMap<Integer, AppointmentDao.Row> own = (caregiver ? byCaregiver : byPatient).get(username);
+        if (own == null) {
+            return page;
+        }
+        for (AppointmentDao.Row appointment : own.tailMap(afterId, false).values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            if (!appointment.getTime().before(from) && !appointment.getTime().after(to)) {
+                page.add(appointment);
+            }
+        }
+        return page;
+    }
+
+    public String getStats() {
+        return caregivers.size() + " caregivers, " + patients.size() + " patients, " + appointments.size() +
+                " appointments, log at record " + log.getSequence() + ", last snapshot at record " +
+                snapshotSequence;
+    }
+
+    // Write the whole state to a new snapshot and empty the log. Changes wait while it is written.
+    public void snapshot() throws IOException {
+        synchronized (writeLock) {
+            long sequence = log.getSequence();
+            Path temporary = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeLong(sequence);
+                out.writeInt(nextId);
+                writeUsers(out, caregivers);
+                writeUsers(out, patients);
+                out.writeInt(vaccines.size());
+                for (Map.Entry<String, Integer> vaccine : vaccines.entrySet()) {
+                    out.writeUTF(vaccine.getKey());
+                    out.writeInt(vaccine.getValue());
+                }
+                out.writeInt(days.size());
+                for (Map.Entry<Integer, NavigableSet<String>> day : days.entrySet()) {
+                    out.writeInt(day.getKey());
+                    out.writeInt(day.getValue().size());
+                    for (String username : day.getValue()) {
+                        out.writeUTF(username);
+                    }
+                }
+                out.writeInt(appointments.size());
+                for (AppointmentDao.Row appointment : appointments.values()) {
+                    out.writeInt(appointment.getAppointmentId());
+                    out.writeUTF(appointment.getPatientName());
+                    out.writeUTF(appointment.getCaregiverName());
+                    out.writeUTF(appointment.getVaccineName());
+                    out.writeInt(day(appointment.getTime()));
+                }
+                out.writeInt(nextWaitingId);
+                for (Map.Entry<Integer, Map<String, NavigableSet<Waiting>>> day : waitlists.entrySet()) {
+                    for (Map.Entry<String, NavigableSet<Waiting>> vaccine : day.getValue().entrySet()) {
+                        for (Waiting waiting : vaccine.getValue()) {
+                            out.writeBoolean(true);
+                            out.writeInt(waiting.id);
+                            out.writeInt(day.getKey());
+                            out.writeUTF(vaccine.getKey());
+                            out.writeUTF(waiting.patientName);
+                            out.writeInt(waiting.priority);
+                        }
+                    }
+                }
+                out.writeBoolean(false);
+                out.flush();
+                file.getChannel().force(true);
+            }
+            Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            // a crash before this point replays records the snapshot already has, which recovery skips
+            log.reset();
+            snapshotSequence = sequence;
+        }
+    }
+
+    // Snapshot the state and close the log
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshot();
+        log.close();
+    }
+
+    private void recover() throws IOException {
+        long sequence = 0;
+        if (Files.exists(snapshotFile)) {
+            sequence = loadSnapshot();
+        }
+        snapshotSequence = sequence;
+        sequence = WriteAheadLog.replay(logFile, sequence, (seq, in) -> replay(in));
+        log = new WriteAheadLog(logFile, sequence, FSYNC);
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "memory-engine-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_MS, FLUSH_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        try {
+            log.flush();
+            if (log.getSequence() - snapshotSequence >= SNAPSHOT_EVERY) {
+                snapshot();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Returns the log sequence number the snapshot was taken at
+    private long loadSnapshot() throws IOException {
+        try (InputStream file = Files.newInputStream(snapshotFile);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException(snapshotFile + " is not a scheduler snapshot");
+            }
+            long sequence = in.readLong();
+            nextId = in.readInt();
+            readUsers(in, caregivers);
+            readUsers(in, patients);
+            for (int i = in.readInt(); i > 0; i--) {
+                vaccines.put(in.readUTF(), in.readInt());
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                NavigableSet<String> free = free(in.readInt());
+                for (int j = in.readInt(); j > 0; j--) {
+                    free.add(in.readUTF());
+                }
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                int id = in.readInt();
+                AppointmentDao.Row appointment = new AppointmentDao.Row(id, name(in.readUTF()),
+                        name(in.readUTF()), name(in.readUTF()), date(in.readInt()));
+                appointments.put(id, appointment);
+                byPatient.computeIfAbsent(appointment.getPatientName(), k -> new ConcurrentSkipListMap<>())
+                        .put(id, appointment);
+                byCaregiver.computeIfAbsent(appointment.getCaregiverName(), k -> new ConcurrentSkipListMap<>())
+                        .put(id, appointment);
+            }
+            nextWaitingId = in.readInt();
+            while (in.readBoolean()) {
+                applyWait(in.readInt(), in.readInt(), in.readUTF(), in.readUTF(), in.readInt());
+            }
+            return sequence;
+        }
+    }
+
+    // Apply one log record to the state without logging it again
+    private void replay(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case CAREGIVER:
+                caregivers.put(in.readUTF(), new UserDao.Credentials(readBytes(in), readBytes(in)));
+                break;
+            case PATIENT:
+                patients.put(in.readUTF(), new UserDao.Credentials(readBytes(in), readBytes(in)));
+                break;
+            case CAREGIVER_HASH:
+                setHash(caregivers, in.readUTF(), readBytes(in));
+                break;
+            case PATIENT_HASH:
+                setHash(patients, in.readUTF(), readBytes(in));
+                break;
+            case AVAILABILITY:
+                free(in.readInt()).add(in.readUTF());
+                break;
+            case VACCINE:
+                vaccines.put(in.readUTF(), in.readInt());
+                break;
+            case DOSES:
+                applyDoses(in.readUTF(), in.readInt());
+                break;
+            case APPOINTMENT:
+                int id = in.readInt();
+                String patientName = in.readUTF();
+                String caregiverName = in.readUTF();
+                String vaccineName = in.readUTF();
+                Date time = date(in.readInt());
+                free(day(time)).remove(caregiverName);
+                applyBooking(id, patientName, caregiverName, vaccineName, time);
+                break;
+            case CANCEL:
+                applyCancel(in.readInt());
+                break;
+            case WITHDRAW:
+                free(in.readInt()).remove(in.readUTF());
+                break;
+            case WAIT:
+                applyWait(in.readInt(), in.readInt(), in.readUTF(), in.readUTF(), 0);
+                break;
+            case UNWAIT:
+                applyUnwait(in.readInt(), in.readUTF(), in.readUTF());
+                break;
+            case WAIT_PRIORITY:
+                applyPriority(in.readInt(), in.readUTF(), in.readUTF(), in.readInt());
+                break;
+            default:
+                throw new IOException("Unknown log record type " + type);
+        }
+    }
+
+    private void append(WriteAheadLog.RecordWriter record) throws SQLException {
+        try {
+            log.append(record);
+        } catch (IOException e) {
+            throw new SQLException("Could not write to the log", e);
+        }
+    }
+
+    private NavigableSet<String> free(int day) {
+        return days.computeIfAbsent(day, k -> new ConcurrentSkipListSet<>());
+    }
+
+    private static SQLIntegrityConstraintViolationException duplicate(String key) {
+        return new SQLIntegrityConstraintViolationException(key + " already exists");
+    }
+
+    private static int day(Date time) {
+        return (int) time.toLocalDate().toEpochDay();
+    }
+
+    private Date date(int day) {
+        return dates.computeIfAbsent(day, k -> Date.valueOf(LocalDate.ofEpochDay(k)));
+    }
+
+    private String name(String name) {
+        String shared = names.putIfAbsent(name, name);
+        return shared == null ? name : shared;
+    }
+
+    private static void writeUsers(DataOutputStream out, Map<String, UserDao.Credentials> users) throws IOException {
+        out.writeInt(users.size());
+        for (Map.Entry<String, UserDao.Credentials> user : users.entrySet()) {
+            out.writeUTF(user.getKey());
+            writeBytes(out, user.getValue().getSalt());
+            writeBytes(out, user.getValue().getHash());
+        }
+    }
+
+    private static void readUsers(DataInputStream in, Map<String, UserDao.Credentials> users) throws IOException {
+        for (int i = in.readInt(); i > 0; i--) {
+            users.put(in.readUTF(), new UserDao.Credentials(readBytes(in), readBytes(in)));
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    // A patient on a waitlist, ids give the order they joined in
+    private static class Waiting {
+        private final int id;
+        private final String patientName;
+        private final int priority;
+
+        Waiting(int id, String patientName, int priority) {
+            this.id = id;
+            this.patientName = patientName;
+            this.priority = priority;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package scheduler.memory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+// Append-only log of the in-memory engine's changes. Every record is
+//   [payload length: 4 bytes][CRC32 of sequence and payload: 4 bytes][sequence number: 8 bytes][payload]
+// Appends only fill a buffer. flush() writes it out, so one write and one optional fsync cover every
+// record appended since the last flush. A record torn by a crash fails its checksum on replay and is
+// cut off together with anything after it.
+class WriteAheadLog implements Closeable {
+
+    private static final int HEADER_LENGTH = 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Writes one record's payload
+    interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Reads one record's payload
+    interface RecordReader {
+        void read(long sequence, DataInputStream in) throws IOException;
+    }
+
+    private final Path file;
+    private final boolean fsync;
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+    private long sequence;
+
+    // payloads are encoded here first to get their length and checksum, reused under the log's lock
+    private final Payload payload = new Payload();
+    private final DataOutputStream payloadOut = new DataOutputStream(payload);
+    private final CRC32 crc = new CRC32();
+    private final byte[] sequenceBytes = new byte[8];
+
+    // Opens the log for appending after the given sequence number
+    WriteAheadLog(Path file, long sequence, boolean fsync) throws IOException {
+        this.file = file;
+        this.sequence = sequence;
+        this.fsync = fsync;
+        open(true);
+    }
+
+    // Returns the new record's sequence number
+    synchronized long append(RecordWriter writer) throws IOException {
+        payload.reset();
+        writer.write(payloadOut);
+        long seq = ++sequence;
+        for (int i = 0; i < 8; i++) {
+            sequenceBytes[i] = (byte) (seq >>> (56 - 8 * i));
+        }
+        crc.reset();
+        crc.update(sequenceBytes);
+        crc.update(payload.bytes(), 0, payload.size());
+        out.writeInt(payload.size());
+        out.writeInt((int) crc.getValue());
+        out.writeLong(seq);
+        payload.writeTo(out);
+        return seq;
+    }
+
+    synchronized long getSequence() {
+        return sequence;
+    }
+
+    // Write out everything appended so far, and force it to disk if fsync is on
+    void flush() throws IOException {
+        FileOutputStream synced;
+        synchronized (this) {
+            out.flush();
+            synced = fileOut;
+        }
+        if (fsync) {
+            synced.getChannel().force(false);
+        }
+    }
+
+    // Empty the log once a snapshot holds everything in it. Sequence numbers carry on.
+    synchronized void reset() throws IOException {
+        out.close();
+        open(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.flush();
+        if (fsync) {
+            fileOut.getChannel().force(false);
+        }
+        out.close();
+    }
+
+    // a reusable payload buffer whose bytes can be checksummed without copying them
+    private static class Payload extends ByteArrayOutputStream {
+        Payload() {
+            super(256);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+
+    private void open(boolean append) throws IOException {
+        fileOut = new FileOutputStream(file.toFile(), append);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+    }
+
+    // Pass every intact record after afterSequence to the reader and cut off a torn tail.
+    // Returns the last sequence number in the log, or afterSequence if there is none after it.
+    static long replay(Path file, long afterSequence, RecordReader reader) throws IOException {
+        if (!Files.exists(file)) {
+            return afterSequence;
+        }
+        long last = afterSequence;
+        long valid = 0;
+        long size = Files.size(file);
+        CRC32 crc = new CRC32();
+        try (InputStream raw = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw, BUFFER_SIZE))) {
+            while (true) {
+                byte[] record;
+                int checksum;
+                long seq;
+                try {
+                    int length = in.readInt();
+                    checksum = in.readInt();
+                    // a torn length can be anything, don't trust it beyond what the file still holds
+                    if (length < 0 || length > size - valid - HEADER_LENGTH) {
+                        break;
+                    }
+                    record = new byte[8 + length];
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+                seq = recordIn.readLong();
+                if (seq > afterSequence) {
+                    reader.read(seq, recordIn);
+                    last = seq;
+                }
+                valid += HEADER_LENGTH + record.length - 8;
+            }
+        }
+        if (valid < size) {
+            try (RandomAccessFile truncate = new RandomAccessFile(file.toFile(), "rw")) {
+                truncate.setLength(valid);
+            }
+        }
+        return last;
+    }
+}
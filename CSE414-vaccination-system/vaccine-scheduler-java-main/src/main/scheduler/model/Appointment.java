@@ -0,0 +1,468 @@
+package scheduler.model;
+
+import scheduler.db.AppointmentDao;
+import scheduler.db.AvailabilityDao;
+import scheduler.db.AvailabilitySummaryWriter;
+import scheduler.db.ConnectionManager;
+import scheduler.db.DatabaseExecutor;
+import scheduler.db.GroupReservationDao;
+import scheduler.db.VaccineDao;
+import scheduler.events.ChangeEvent;
+import scheduler.events.EventBus;
+import scheduler.memory.MemoryEngine;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+
+public class Appointment {
+    private final int appointmentId;
+    private final String patientName;
+    private final String caregiverName;
+    private final String vaccineName;
+    private final Date time;
+
+    private Appointment(AppointmentReserver reserver) {
+        this.appointmentId = reserver.appointmentId;
+        this.patientName = reserver.patientName;
+        this.caregiverName = reserver.caregiverName;
+        this.vaccineName = reserver.vaccineName;
+        this.time = reserver.time;
+    }
+
+    // Getters
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getPatientName() {
+        return patientName;
+    }
+
+    public String getCaregiverName() {
+        return caregiverName;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return "Appointment{" +
+                "appointmentId=" + appointmentId +
+                ", patientName='" + patientName + '\'' +
+                ", caregiverName='" + caregiverName + '\'' +
+                ", vaccineName='" + vaccineName + '\'' +
+                ", time=" + time +
+                '}';
+    }
+
+    // Books the first free caregiver on a date and one dose of a vaccine in a single transaction
+    public static class AppointmentReserver {
+        static final int MAX_ATTEMPTS = 3;
+
+        private final String patientName;
+        private final String vaccineName;
+        private final Date time;
+        private int appointmentId;
+        private String caregiverName;
+
+        public AppointmentReserver(String patientName, String vaccineName, Date time) {
+            this.patientName = patientName;
+            this.vaccineName = vaccineName;
+            this.time = time;
+        }
+
+        // Throws IllegalStateException with a user-facing message if no caregiver or dose is left
+        public Appointment reserve() throws SQLException {
+            Appointment appointment = reserveOnce();
+            EventBus.publish(ChangeEvent.booked(appointment.getAppointmentId(), this.patientName,
+                    this.caregiverName, this.vaccineName, this.time));
+            return appointment;
+        }
+
+        private Appointment reserveOnce() throws SQLException {
+            if (MemoryEngine.isEnabled()) {
+                AppointmentDao.Row appointment = MemoryEngine.get().reserve(this.patientName, this.vaccineName,
+                        this.time);
+                this.appointmentId = appointment.getAppointmentId();
+                this.caregiverName = appointment.getCaregiverName();
+                return new Appointment(this);
+            }
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return tryReserve();
+                } catch (SQLException e) {
+                    if (!ConnectionManager.isDeadlock(e) || attempt == MAX_ATTEMPTS) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        // Run the reservation on a database worker
+        public CompletableFuture<Appointment> reserveAsync() {
+            return DatabaseExecutor.submit(this::reserve);
+        }
+
+        private Appointment tryReserve() throws SQLException {
+            ConnectionManager cm = new ConnectionManager();
+            cm.createConnection();
+            boolean committed = false;
+            this.caregiverName = null;
+            try {
+                cm.beginTransaction();
+
+                claimCaregiver(new AvailabilityDao(cm));
+                if (this.caregiverName == null) {
+                    cm.rollback();
+                    throw new IllegalStateException("No Caregiver is available!");
+                }
+                if (new VaccineDao(cm).removeDoses(this.vaccineName, 1) == null) {
+                    cm.rollback();
+                    throw new IllegalStateException("Not enough available doses!");
+                }
+
+                this.appointmentId = new AppointmentDao(cm).insert(this.patientName, this.caregiverName,
+                        this.vaccineName, this.time);
+
+                cm.commit();
+                committed = true;
+                AvailabilitySummaryWriter.adjust(this.time, -1);
+                AvailabilityIndex.get().addLoad(this.caregiverName, 1);
+                VaccineCache.invalidate(this.vaccineName);
+                return new Appointment(this);
+            } catch (SQLException e) {
+                cm.rollback();
+                throw e;
+            } finally {
+                // the rollback gave the caregiver's availability back
+                if (!committed && this.caregiverName != null) {
+                    AvailabilityIndex.get().add(this.time, this.caregiverName);
+                }
+                cm.closeConnection();
+            }
+        }
+
+        // Claim the caregiver the index offers, or the first free one in the database if the index
+        // has none or its candidate was already claimed by another scheduler instance.
+        // Leaves caregiverName null if nobody is free.
+        private void claimCaregiver(AvailabilityDao availabilities) throws SQLException {
+            AvailabilityIndex index = AvailabilityIndex.get();
+            this.caregiverName = index.take(this.time);
+            if (this.caregiverName != null && availabilities.claim(this.time, this.caregiverName)) {
+                return;
+            }
+            // a stale candidate isn't free anywhere, so it is simply dropped
+            if (this.caregiverName != null) {
+                index.markStale();
+            }
+            this.caregiverName = availabilities.claimFirst(this.time);
+            if (this.caregiverName != null) {
+                index.remove(this.time, this.caregiverName);
+            }
+        }
+    }
+
+    // Cancels one appointment on behalf of its patient or caregiver in a single transaction: the delete
+    // returns the row, the caregiver's availability is restored if it isn't already there and the dose
+    // is given back. The ownership check is part of the delete, so of two concurrent cancels of the same
+    // appointment exactly one restores anything.
+    public static class AppointmentCanceller {
+        private final int appointmentId;
+        private final String username;
+        private final boolean caregiver;
+
+        public AppointmentCanceller(int appointmentId, String username, boolean caregiver) {
+            this.appointmentId = appointmentId;
+            this.username = username;
+            this.caregiver = caregiver;
+        }
+
+        // Returns the cancelled appointment. Throws IllegalStateException with a user-facing message if
+        // the appointment doesn't exist or belongs to someone else.
+        public AppointmentDao.Row cancel() throws SQLException {
+            AppointmentDao.Row appointment = cancelOnce();
+            EventBus.publish(ChangeEvent.cancelled(appointment));
+            // the dose can go to any date and the caregiver to any vaccine
+            Waitlist.dosesFreed(appointment.getVaccineName());
+            Waitlist.availabilityFreed(appointment.getTime());
+            return appointment;
+        }
+
+        private AppointmentDao.Row cancelOnce() throws SQLException {
+            if (MemoryEngine.isEnabled()) {
+                AppointmentDao.Row appointment = MemoryEngine.get().cancel(this.appointmentId, this.username,
+                        this.caregiver);
+                if (appointment == null) {
+                    throw notCancelled(MemoryEngine.get().get(this.appointmentId) != null);
+                }
+                return appointment;
+            }
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return tryCancel();
+                } catch (SQLException e) {
+                    if (!ConnectionManager.isDeadlock(e) || attempt == AppointmentReserver.MAX_ATTEMPTS) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        private AppointmentDao.Row tryCancel() throws SQLException {
+            ConnectionManager cm = new ConnectionManager();
+            cm.createConnection();
+            AppointmentDao.Row appointment;
+            boolean restored;
+            try {
+                cm.beginTransaction();
+                AppointmentDao appointments = new AppointmentDao(cm);
+                appointment = appointments.deleteOwned(this.appointmentId, this.username, this.caregiver);
+                if (appointment == null) {
+                    boolean exists = appointments.get(this.appointmentId) != null;
+                    cm.rollback();
+                    throw notCancelled(exists);
+                }
+                // same lock order as reserve: availability, then the vaccine
+                restored = !new AvailabilityDao(cm).insertIfAbsent(List.of(appointment.getTime()),
+                        appointment.getCaregiverName()).isEmpty();
+                new VaccineDao(cm).addDoses(appointment.getVaccineName(), 1);
+                cm.commit();
+            } catch (SQLException e) {
+                cm.rollback();
+                throw e;
+            } finally {
+                cm.closeConnection();
+            }
+            VaccineCache.invalidate(appointment.getVaccineName());
+            AvailabilityIndex index = AvailabilityIndex.get();
+            if (restored) {
+                AvailabilitySummaryWriter.adjust(appointment.getTime(), 1);
+                index.add(appointment.getTime(), appointment.getCaregiverName());
+            }
+            index.addLoad(appointment.getCaregiverName(), -1);
+            return appointment;
+        }
+
+        private static IllegalStateException notCancelled(boolean exists) {
+            return new IllegalStateException(exists ? "You can only cancel your own appointments!"
+                    : "Appointment does not exist!");
+        }
+    }
+
+    // Cancels all of a caregiver's appointments on a date in a single transaction, for a caregiver taking
+    // the day off. The appointments are deleted with one statement, their doses are given back with one
+    // batched delta per vaccine, and the caregiver's remaining availability for the date is withdrawn so
+    // nobody books them again.
+    public static class DayCanceller {
+        private final String caregiverName;
+        private final Date time;
+        // whether the caregiver was left free on the date, by an unbooked slot or a cancelled appointment
+        private boolean withdrawn = false;
+
+        public DayCanceller(String caregiverName, Date time) {
+            this.caregiverName = caregiverName;
+            this.time = time;
+        }
+
+        // Returns the cancelled appointments
+        public List<AppointmentDao.Row> cancel() throws SQLException {
+            List<AppointmentDao.Row> cancelled = cancelOnce();
+            Set<String> vaccineNames = new TreeSet<>();
+            for (AppointmentDao.Row appointment : cancelled) {
+                EventBus.publish(ChangeEvent.cancelled(appointment));
+                vaccineNames.add(appointment.getVaccineName());
+            }
+            // a cancellation event gives the slot back, so withdrawing it has to be reported as well
+            if (this.withdrawn) {
+                EventBus.publish(ChangeEvent.availabilityRemoved(this.time, this.caregiverName));
+            }
+            vaccineNames.forEach(Waitlist::dosesFreed);
+            return cancelled;
+        }
+
+        private List<AppointmentDao.Row> cancelOnce() throws SQLException {
+            if (MemoryEngine.isEnabled()) {
+                List<AppointmentDao.Row> cancelled = new ArrayList<>();
+                this.withdrawn = MemoryEngine.get().cancelDay(this.caregiverName, this.time, cancelled);
+                return cancelled;
+            }
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return tryCancel();
+                } catch (SQLException e) {
+                    if (!ConnectionManager.isDeadlock(e) || attempt == AppointmentReserver.MAX_ATTEMPTS) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        private List<AppointmentDao.Row> tryCancel() throws SQLException {
+            ConnectionManager cm = new ConnectionManager();
+            cm.createConnection();
+            List<AppointmentDao.Row> cancelled;
+            boolean claimed;
+            Map<String, Integer> doses = new LinkedHashMap<>();
+            try {
+                cm.beginTransaction();
+                cancelled = new AppointmentDao(cm).deleteDayForCaregiver(this.caregiverName, this.time);
+                claimed = new AvailabilityDao(cm).claim(this.time, this.caregiverName);
+                for (AppointmentDao.Row appointment : cancelled) {
+                    doses.merge(appointment.getVaccineName(), 1, Integer::sum);
+                }
+                if (!doses.isEmpty()) {
+                    new VaccineDao(cm).mergeDoses(new ArrayList<>(doses.keySet()), doses);
+                }
+                cm.commit();
+            } catch (SQLException e) {
+                cm.rollback();
+                throw e;
+            } finally {
+                cm.closeConnection();
+            }
+            if (claimed) {
+                AvailabilitySummaryWriter.adjust(this.time, -1);
+            }
+            for (String vaccineName : doses.keySet()) {
+                VaccineCache.invalidate(vaccineName);
+            }
+            this.withdrawn = claimed || !cancelled.isEmpty();
+            AvailabilityIndex index = AvailabilityIndex.get();
+            index.remove(this.time, this.caregiverName);
+            index.addLoad(this.caregiverName, -cancelled.size());
+            return cancelled;
+        }
+    }
+
+    // Books many patients on one date with one vaccine in a single transaction, with set-based
+    // statements instead of one reservation per patient. Books as many as there are caregivers
+    // and doses for and reports why the rest couldn't be booked.
+    public static class GroupReserver {
+        private final List<String> patientNames;
+        private final String vaccineName;
+        private final Date time;
+        private List<AppointmentDao.Row> booked = new ArrayList<>();
+        private int knownPatients;
+        private int availableDoses;
+
+        public GroupReserver(List<String> patientNames, String vaccineName, Date time) {
+            this.patientNames = patientNames;
+            this.vaccineName = vaccineName;
+            this.time = time;
+        }
+
+        // Getters
+        public List<AppointmentDao.Row> getBooked() {
+            return booked;
+        }
+
+        // Patients in the list that don't exist
+        public int getUnknownPatients() {
+            return patientNames.size() - knownPatients;
+        }
+
+        // Known patients that couldn't be booked because the caregivers ran out
+        public int getShortOfCaregivers() {
+            return Math.min(knownPatients, availableDoses) - booked.size();
+        }
+
+        // Known patients that couldn't be booked because the doses ran out
+        public int getShortOfDoses() {
+            return knownPatients - Math.min(knownPatients, availableDoses);
+        }
+
+        // Throws IllegalStateException if the vaccine doesn't exist
+        public GroupReserver reserve() throws SQLException {
+            reserveOnce();
+            for (AppointmentDao.Row appointment : this.booked) {
+                EventBus.publish(ChangeEvent.booked(appointment));
+            }
+            return this;
+        }
+
+        private GroupReserver reserveOnce() throws SQLException {
+            if (MemoryEngine.isEnabled()) {
+                MemoryEngine memory = MemoryEngine.get();
+                Integer doses = memory.getDoses(this.vaccineName);
+                if (doses == null) {
+                    throw new IllegalStateException("Vaccine " + this.vaccineName + " does not exist!");
+                }
+                this.availableDoses = doses;
+                this.knownPatients = memory.countPatients(this.patientNames);
+                this.booked = memory.reserveGroup(this.patientNames, this.vaccineName, this.time);
+                return this;
+            }
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    if (tryReserve()) {
+                        return this;
+                    }
+                } catch (SQLException e) {
+                    if (!ConnectionManager.isDeadlock(e) || attempt == AppointmentReserver.MAX_ATTEMPTS) {
+                        throw e;
+                    }
+                }
+                if (attempt == AppointmentReserver.MAX_ATTEMPTS) {
+                    throw new IllegalStateException("Not enough available doses!");
+                }
+            }
+        }
+
+        // Returns false if the doses changed under us and the whole group has to be tried again
+        private boolean tryReserve() throws SQLException {
+            ConnectionManager cm = new ConnectionManager();
+            cm.createConnection();
+            try {
+                Integer doses = new VaccineDao(cm).getDoses(this.vaccineName);
+                if (doses == null) {
+                    throw new IllegalStateException("Vaccine " + this.vaccineName + " does not exist!");
+                }
+                this.availableDoses = doses;
+                this.booked = new ArrayList<>();
+
+                // lock caregivers, then the vaccine, in the same order as reserve
+                cm.beginTransaction();
+                GroupReservationDao group = new GroupReservationDao(cm);
+                this.knownPatients = group.stage(this.patientNames);
+                int claimed = group.claim(this.time, Math.min(this.knownPatients, this.availableDoses));
+                if (claimed > 0) {
+                    if (new VaccineDao(cm).removeDoses(this.vaccineName, claimed) == null) {
+                        cm.rollback();
+                        return false;
+                    }
+                    this.booked = group.book(this.vaccineName, this.time);
+                }
+                group.drop();
+                cm.commit();
+            } catch (SQLException e) {
+                cm.rollback();
+                throw e;
+            } finally {
+                cm.closeConnection();
+            }
+            VaccineCache.invalidate(this.vaccineName);
+            if (!this.booked.isEmpty()) {
+                AvailabilitySummaryWriter.adjust(this.time, -this.booked.size());
+            }
+            AvailabilityIndex index = AvailabilityIndex.get();
+            for (AppointmentDao.Row appointment : this.booked) {
+                index.remove(this.time, appointment.getCaregiverName());
+                index.addLoad(appointment.getCaregiverName(), 1);
+            }
+            return true;
+        }
+    }
+}
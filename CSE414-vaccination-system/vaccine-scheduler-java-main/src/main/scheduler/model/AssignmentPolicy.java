@@ -0,0 +1,76 @@
+package scheduler.model;
+
+import java.util.BitSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Chooses which of the caregivers free on a date reserve books. The AssignmentPolicy environment
+// variable selects one of first, least_loaded (the default), round_robin or random.
+public interface AssignmentPolicy {
+
+    // Return the id of one of the set bits of free, which is never empty. loads holds each
+    // caregiver's number of booked appointments by id and may be shorter than the highest id.
+    int choose(BitSet free, int[] loads);
+
+    static AssignmentPolicy forName(String name) {
+        switch (name.toLowerCase()) {
+            case "first":
+                return first();
+            case "least_loaded":
+                return leastLoaded();
+            case "round_robin":
+                return roundRobin();
+            case "random":
+                return random();
+            default:
+                throw new IllegalArgumentException("Unknown assignment policy " + name);
+        }
+    }
+
+    // The caregiver seen first, which books the same few caregivers over and over
+    static AssignmentPolicy first() {
+        return (free, loads) -> free.nextSetBit(0);
+    }
+
+    // The caregiver with the fewest appointments, ties go to the one seen first
+    static AssignmentPolicy leastLoaded() {
+        return (free, loads) -> {
+            int best = free.nextSetBit(0);
+            int bestLoad = Integer.MAX_VALUE;
+            for (int id = best; id >= 0; id = free.nextSetBit(id + 1)) {
+                int load = id < loads.length ? loads[id] : 0;
+                if (load < bestLoad) {
+                    best = id;
+                    bestLoad = load;
+                    if (load == 0) {
+                        break;
+                    }
+                }
+            }
+            return best;
+        };
+    }
+
+    // The next free caregiver after the one booked last, on any date. Callers must serialise choose.
+    static AssignmentPolicy roundRobin() {
+        int[] next = {0};
+        return (free, loads) -> {
+            int id = free.nextSetBit(next[0]);
+            if (id < 0) {
+                id = free.nextSetBit(0);
+            }
+            next[0] = id + 1;
+            return id;
+        };
+    }
+
+    // Any free caregiver, with equal probability
+    static AssignmentPolicy random() {
+        return (free, loads) -> {
+            int id = free.nextSetBit(0);
+            for (int skip = ThreadLocalRandom.current().nextInt(free.cardinality()); skip > 0; skip--) {
+                id = free.nextSetBit(id + 1);
+            }
+            return id;
+        };
+    }
+}
@@ -0,0 +1,156 @@
+package scheduler.model;
+
+import scheduler.db.AppointmentDao;
+import scheduler.db.AvailabilityDao;
+import scheduler.db.ConnectionManager;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Free caregivers per date, held in memory so reserve can pick a caregiver without a query and only
+// uses the database to confirm the claim. Caregivers get dense int ids in the order they are first
+// seen and every date maps to a bitmap of the ids free on it, so 10k caregivers cost about 1.2KB per
+// date. It is loaded from Availabilities at startup and updated after every upload, reserve and
+// cancel this process commits. Changes made by other scheduler instances aren't seen, so a candidate
+// can be stale: its claim then fails and reserve falls back to the database. Disable it with
+// AvailabilityIndex=0.
+// It also counts each caregiver's booked appointments, which the AssignmentPolicy can balance on.
+public class AvailabilityIndex {
+
+    private static final boolean ENABLED = Util.getIntSetting("AvailabilityIndex", 1) != 0;
+    private static final AvailabilityIndex shared = new AvailabilityIndex();
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> usernames = new ArrayList<>();
+    // keyed by epoch day
+    private final Map<Integer, BitSet> free = new HashMap<>();
+    // booked appointments by id
+    private int[] loads = new int[64];
+    private AssignmentPolicy policy = AssignmentPolicy.forName(Util.getSetting("AssignmentPolicy", "least_loaded"));
+    // candidates that turned out to be claimed already, by another scheduler instance
+    private long staleCandidates;
+
+    // The index the scheduler keeps in sync
+    public static AvailabilityIndex get() {
+        return shared;
+    }
+
+    // Load the shared index from Availabilities ahead of the first reservation
+    public static void warmUp() {
+        if (!ENABLED) {
+            return;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            new AvailabilityDao(cm).forEach(shared::add);
+            new AppointmentDao(cm).forEachCaregiverLoad(shared::addLoad);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public synchronized void add(Date time, String username) {
+        if (!ENABLED) {
+            return;
+        }
+        free.computeIfAbsent(day(time), d -> new BitSet()).set(id(username));
+    }
+
+    public synchronized void remove(Date time, String username) {
+        BitSet caregivers = free.get(day(time));
+        Integer id = ids.get(username);
+        if (caregivers != null && id != null) {
+            caregivers.clear(id);
+        }
+    }
+
+    // Remove and return the caregiver the policy picks among those free on a date, or null if the
+    // index has none
+    public synchronized String take(Date time) {
+        BitSet caregivers = free.get(day(time));
+        if (caregivers == null || caregivers.isEmpty()) {
+            return null;
+        }
+        int id = policy.choose(caregivers, loads);
+        caregivers.clear(id);
+        return usernames.get(id);
+    }
+
+    // A candidate from take() had already been claimed elsewhere
+    public synchronized void markStale() {
+        staleCandidates++;
+    }
+
+    // Count appointments booked (positive delta) or canceled (negative) for a caregiver
+    public synchronized void addLoad(String username, int delta) {
+        if (!ENABLED) {
+            return;
+        }
+        int id = id(username);
+        loads[id] += delta;
+    }
+
+    public synchronized int getLoad(String username) {
+        Integer id = ids.get(username);
+        return id == null ? 0 : loads[id];
+    }
+
+    public synchronized long getStaleCandidates() {
+        return staleCandidates;
+    }
+
+    public synchronized void setPolicy(AssignmentPolicy policy) {
+        this.policy = policy;
+    }
+
+    public synchronized int count(Date time) {
+        BitSet caregivers = free.get(day(time));
+        return caregivers == null ? 0 : caregivers.cardinality();
+    }
+
+    // Approximate heap used by the bitmaps, their map entries and the username dictionary
+    public synchronized long getFootprintBytes() {
+        long bytes = 0;
+        for (BitSet caregivers : free.values()) {
+            // map entry and boxed key, the BitSet and its word array
+            bytes += 48 + 32 + 16 + caregivers.size() / 8;
+        }
+        for (String username : usernames) {
+            // map entry, boxed id, list slot, load and the string itself
+            bytes += 48 + 8 + 4 + 40 + username.length();
+        }
+        return bytes;
+    }
+
+    public synchronized String getStats() {
+        return "dates=" + free.size() + ", caregivers=" + usernames.size() + ", stale candidates=" +
+                staleCandidates + ", footprint=" + getFootprintBytes() / 1024 + "KB";
+    }
+
+    private int id(String username) {
+        Integer id = ids.get(username);
+        if (id == null) {
+            id = usernames.size();
+            ids.put(username, id);
+            usernames.add(username);
+            if (id == loads.length) {
+                loads = Arrays.copyOf(loads, loads.length * 2);
+            }
+        }
+        return id;
+    }
+
+    private static int day(Date time) {
+        return (int) time.toLocalDate().toEpochDay();
+    }
+}
@@ -1,12 +1,29 @@
 package scheduler.model;
 
+import scheduler.db.AvailabilityDao;
+import scheduler.db.AvailabilitySummaryWriter;
 import scheduler.db.ConnectionManager;
+import scheduler.db.DatabaseExecutor;
+import scheduler.db.UserDao;
+import scheduler.db.WriteBatcher;
+import scheduler.events.ChangeEvent;
+import scheduler.events.EventBus;
+import scheduler.memory.MemoryEngine;
 import scheduler.util.Util;
 
 import java.sql.*;
-import java.util.Arrays;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class Caregiver {
+    private static final WriteBatcher insertBatcher = new WriteBatcher(UserDao.INSERT_CAREGIVER);
+    private static final WriteBatcher availabilityBatcher =
+            new WriteBatcher(AvailabilityDao.INSERT);
+
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
@@ -37,35 +54,92 @@ public class Caregiver {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        DatabaseExecutor.await(saveToDBAsync());
+    }
 
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+    // Inserts from concurrent sign-ups are coalesced into batches
+    public CompletableFuture<Integer> saveToDBAsync() {
+        if (MemoryEngine.isEnabled()) {
+            return MemoryEngine.complete(() -> {
+                MemoryEngine.get().addCaregiver(this.username, this.salt, this.hash);
+                return 1;
+            });
         }
+        return insertBatcher.submit(this.username, this.salt, this.hash);
     }
 
     public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        DatabaseExecutor.await(uploadAvailabilityAsync(d));
+    }
+
+    // Single-date uploads from all sessions are coalesced into batched inserts
+    public CompletableFuture<Integer> uploadAvailabilityAsync(Date d) {
+        if (MemoryEngine.isEnabled()) {
+            return MemoryEngine.complete(() -> {
+                MemoryEngine.get().addAvailability(d, this.username);
+                EventBus.publish(ChangeEvent.availabilityAdded(d, this.username));
+                Waitlist.availabilityFreed(d);
+                return 1;
+            });
+        }
+        return availabilityBatcher.submit(d, this.username).thenApply(count -> {
+            if (count > 0) {
+                AvailabilitySummaryWriter.adjust(d, 1);
+                AvailabilityIndex.get().add(d, this.username);
+                EventBus.publish(ChangeEvent.availabilityAdded(d, this.username));
+                Waitlist.availabilityFreed(d);
+            }
+            return count;
+        });
+    }
+
+    // Upload every date from start to end (inclusive) that falls on one of the given weekdays.
+    // Returns the number of dates inserted; dates that were already uploaded are skipped.
+    public int uploadAvailabilityRange(Date start, Date end, Set<DayOfWeek> weekdays) throws SQLException {
+        return uploadAvailability(datesInRange(start, end, weekdays));
+    }
 
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
+    // Every date from start to end (inclusive) that falls on one of the given weekdays
+    public static List<Date> datesInRange(Date start, Date end, Set<DayOfWeek> weekdays) {
+        List<Date> dates = new ArrayList<>();
+        for (LocalDate day = start.toLocalDate(); !day.isAfter(end.toLocalDate()); day = day.plusDays(1)) {
+            if (weekdays.contains(day.getDayOfWeek())) {
+                dates.add(Date.valueOf(day));
+            }
+        }
+        return dates;
+    }
+
+    // Upload many dates in one batched transaction, skipping dates that already exist.
+    // Returns the number of dates inserted.
+    public int uploadAvailability(List<Date> dates) throws SQLException {
+        if (dates.isEmpty()) {
+            return 0;
+        }
+        if (MemoryEngine.isEnabled()) {
+            List<Date> added = MemoryEngine.get().addAvailability(dates, this.username);
+            for (Date date : added) {
+                EventBus.publish(ChangeEvent.availabilityAdded(date, this.username));
+                Waitlist.availabilityFreed(date);
+            }
+            return added.size();
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
         try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, this.username);
-            statement.executeUpdate();
+            cm.beginTransaction();
+            List<Date> inserted = new AvailabilityDao(cm).insertIfAbsent(dates, this.username);
+            cm.commit();
+            AvailabilitySummaryWriter.increment(inserted);
+            for (Date date : inserted) {
+                AvailabilityIndex.get().add(date, this.username);
+                EventBus.publish(ChangeEvent.availabilityAdded(date, this.username));
+                Waitlist.availabilityFreed(date);
+            }
+            return inserted.size();
         } catch (SQLException e) {
-            throw new SQLException();
+            cm.rollback();
+            throw e;
         } finally {
             cm.closeConnection();
         }
@@ -99,35 +173,50 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
+            if (MemoryEngine.isEnabled()) {
+                return getFromMemory();
+            }
+            UserDao.Credentials credentials;
             ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
+            cm.createConnection();
             try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
-                }
-                return null;
-            } catch (SQLException e) {
-                throw new SQLException();
+                credentials = UserDao.caregivers(cm).getCredentials(this.username);
             } finally {
+                // hashing is slow, so don't hold on to the connection while checking the password
                 cm.closeConnection();
             }
+            // check if the password matches
+            if (credentials == null || !Util.verifyHash(password, credentials.getSalt(), credentials.getHash())) {
+                return null;
+            }
+            this.salt = credentials.getSalt();
+            this.hash = credentials.getHash();
+            // upgrade hashes made with older parameters now that we know the password
+            if (Util.needsRehash(this.hash)) {
+                this.hash = Util.generateHash(password, this.salt);
+                cm.createConnection();
+                try {
+                    UserDao.caregivers(cm).updateHash(this.username, this.hash);
+                } finally {
+                    cm.closeConnection();
+                }
+            }
+            return new Caregiver(this);
+        }
+
+        private Caregiver getFromMemory() throws SQLException {
+            MemoryEngine memory = MemoryEngine.get();
+            UserDao.Credentials credentials = memory.getCredentials(true, this.username);
+            if (credentials == null || !Util.verifyHash(password, credentials.getSalt(), credentials.getHash())) {
+                return null;
+            }
+            this.salt = credentials.getSalt();
+            this.hash = credentials.getHash();
+            if (Util.needsRehash(this.hash)) {
+                this.hash = Util.generateHash(password, this.salt);
+                memory.updateHash(true, this.username, this.hash);
+            }
+            return new Caregiver(this);
         }
     }
 }
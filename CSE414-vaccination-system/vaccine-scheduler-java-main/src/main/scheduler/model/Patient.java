@@ -1,12 +1,17 @@
 package scheduler.model;
 
 import scheduler.db.ConnectionManager;
+import scheduler.db.DatabaseExecutor;
+import scheduler.db.UserDao;
+import scheduler.db.WriteBatcher;
+import scheduler.memory.MemoryEngine;
 import scheduler.util.Util;
 
 import java.sql.*;
-import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 public class Patient {
+    private static final WriteBatcher insertBatcher = new WriteBatcher(UserDao.INSERT_PATIENT);
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
@@ -37,21 +42,18 @@ public class Patient {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addPatient = "INSERT INTO Patients VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        DatabaseExecutor.await(saveToDBAsync());
+    }
+
+    // Inserts from concurrent sign-ups are coalesced into batches
+    public CompletableFuture<Integer> saveToDBAsync() {
+        if (MemoryEngine.isEnabled()) {
+            return MemoryEngine.complete(() -> {
+                MemoryEngine.get().addPatient(this.username, this.salt, this.hash);
+                return 1;
+            });
         }
+        return insertBatcher.submit(this.username, this.salt, this.hash);
     }
 
     public static class PatientBuilder {
@@ -82,35 +84,50 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
+            if (MemoryEngine.isEnabled()) {
+                return getFromMemory();
+            }
+            UserDao.Credentials credentials;
             ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
+            cm.createConnection();
             try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
-                    }
-                }
-                return null;
-            } catch (SQLException e) {
-                throw new SQLException();
+                credentials = UserDao.patients(cm).getCredentials(this.username);
             } finally {
+                // hashing is slow, so don't hold on to the connection while checking the password
                 cm.closeConnection();
             }
+            // check if the password matches
+            if (credentials == null || !Util.verifyHash(password, credentials.getSalt(), credentials.getHash())) {
+                return null;
+            }
+            this.salt = credentials.getSalt();
+            this.hash = credentials.getHash();
+            // upgrade hashes made with older parameters now that we know the password
+            if (Util.needsRehash(this.hash)) {
+                this.hash = Util.generateHash(password, this.salt);
+                cm.createConnection();
+                try {
+                    UserDao.patients(cm).updateHash(this.username, this.hash);
+                } finally {
+                    cm.closeConnection();
+                }
+            }
+            return new Patient(this);
+        }
+
+        private Patient getFromMemory() throws SQLException {
+            MemoryEngine memory = MemoryEngine.get();
+            UserDao.Credentials credentials = memory.getCredentials(false, this.username);
+            if (credentials == null || !Util.verifyHash(password, credentials.getSalt(), credentials.getHash())) {
+                return null;
+            }
+            this.salt = credentials.getSalt();
+            this.hash = credentials.getHash();
+            if (Util.needsRehash(this.hash)) {
+                this.hash = Util.generateHash(password, this.salt);
+                memory.updateHash(false, this.username, this.hash);
+            }
+            return new Patient(this);
         }
     }
 }
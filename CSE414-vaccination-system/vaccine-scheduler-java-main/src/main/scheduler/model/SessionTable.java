@@ -0,0 +1,184 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.DatabaseExecutor;
+import scheduler.db.SessionDao;
+import scheduler.db.WriteBatcher;
+import scheduler.util.Util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Short-lived login sessions, so a returning client can resume with its token instead of paying
+// for another password hash. Sessions live in a bounded in-memory table, oldest first, and expire a
+// fixed time after login. With PersistentSessions=1 they are also written to the Sessions table so
+// they survive a restart and can be resumed on another scheduler instance. The lifetime and bound
+// can be tuned with the SessionTtlMs and MaxSessions environment variables.
+public class SessionTable {
+
+    private static final long TTL_MS = Util.getIntSetting("SessionTtlMs", 30 * 60 * 1000);
+    private static final int MAX_SESSIONS = Util.getIntSetting("MaxSessions", 100_000);
+    private static final boolean PERSISTENT = Util.getIntSetting("PersistentSessions", 0) != 0;
+
+    // every session gets the same lifetime, so insertion order is expiry order, except for sessions
+    // resumed from the Sessions table, which are checked when they are looked up
+    private static final Map<String, Session> sessions = new LinkedHashMap<String, Session>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+            return size() > MAX_SESSIONS;
+        }
+    };
+    private static final WriteBatcher insertBatcher = new WriteBatcher(SessionDao.INSERT);
+    private static long lastPurge = System.currentTimeMillis();
+
+    private SessionTable() {
+    }
+
+    // Start a session for a user who just logged in, returns its token
+    public static String open(String username, boolean caregiver) {
+        String token = Util.generateToken();
+        Session session = new Session(username, caregiver, System.currentTimeMillis() + TTL_MS);
+        if (PERSISTENT) {
+            // the login doesn't wait for this, the session already works on this instance
+            session.stored = insertBatcher.submit(hash(token), username, caregiver, new Timestamp(session.expiresAt));
+        }
+        synchronized (sessions) {
+            purgeExpired();
+            sessions.put(token, session);
+        }
+        if (PERSISTENT) {
+            purgePersisted();
+        }
+        return token;
+    }
+
+    // Returns the session for a token, or null if it is unknown or has expired
+    public static Session resume(String token) throws SQLException {
+        synchronized (sessions) {
+            Session session = sessions.get(token);
+            if (session != null && session.expiresAt > System.currentTimeMillis()) {
+                return session;
+            }
+        }
+        if (!PERSISTENT) {
+            return null;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            SessionDao.Row row = new SessionDao(cm).get(hash(token), new Timestamp(System.currentTimeMillis()));
+            if (row == null) {
+                return null;
+            }
+            Session session = new Session(row.getUsername(), row.isCaregiver(), row.getExpires().getTime());
+            synchronized (sessions) {
+                sessions.put(token, session);
+            }
+            return session;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public static void close(String token) throws SQLException {
+        Session session;
+        synchronized (sessions) {
+            session = sessions.remove(token);
+        }
+        if (!PERSISTENT) {
+            return;
+        }
+        if (session != null) {
+            // a logout right after login could otherwise delete the row before the batched insert writes it,
+            // leaving the session valid on every other instance; a failed insert left nothing to delete
+            DatabaseExecutor.await(session.stored.exceptionally(e -> 0));
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            new SessionDao(cm).delete(hash(token));
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Sessions on this instance that haven't expired
+    public static int getActiveCount() {
+        synchronized (sessions) {
+            purgeExpired();
+            return sessions.size();
+        }
+    }
+
+    // Drop expired sessions from the front of the table, callers hold its lock
+    private static void purgeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Session> oldest = sessions.values().iterator();
+        while (oldest.hasNext() && oldest.next().expiresAt <= now) {
+            oldest.remove();
+        }
+    }
+
+    // Delete expired rows from the Sessions table, at most once per session lifetime
+    private static void purgePersisted() {
+        long now = System.currentTimeMillis();
+        synchronized (sessions) {
+            if (now - lastPurge < TTL_MS) {
+                return;
+            }
+            lastPurge = now;
+        }
+        DatabaseExecutor.submit(() -> {
+            ConnectionManager cm = new ConnectionManager();
+            cm.createConnection();
+            try {
+                return new SessionDao(cm).deleteExpired(new Timestamp(now));
+            } finally {
+                cm.closeConnection();
+            }
+        });
+    }
+
+    // Only a digest of the token is stored, so reading the table doesn't give away live sessions
+    private static byte[] hash(String token) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static class Session {
+        private final String username;
+        private final boolean caregiver;
+        private final long expiresAt;
+        // completes once the session's row is in the Sessions table, or it was never going to be
+        private CompletableFuture<Integer> stored = CompletableFuture.completedFuture(0);
+
+        private Session(String username, boolean caregiver, long expiresAt) {
+            this.username = username;
+            this.caregiver = caregiver;
+            this.expiresAt = expiresAt;
+        }
+
+        // Getters
+        public String getUsername() {
+            return username;
+        }
+
+        public boolean isCaregiver() {
+            return caregiver;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+}
@@ -1,13 +1,22 @@
 package scheduler.model;
 
 import scheduler.db.ConnectionManager;
+import scheduler.db.DatabaseExecutor;
+import scheduler.db.VaccineDao;
+import scheduler.db.WriteBatcher;
+import scheduler.events.ChangeEvent;
+import scheduler.events.EventBus;
+import scheduler.memory.MemoryEngine;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class Vaccine {
+    private static final WriteBatcher doseBatcher = new WriteBatcher(VaccineDao.MERGE_DOSES);
+
     private final String vaccineName;
     private int availableDoses;
 
@@ -31,17 +40,17 @@ public class Vaccine {
     }
 
     public void saveToDB() throws SQLException {
+        if (MemoryEngine.isEnabled()) {
+            MemoryEngine.get().addVaccine(this.vaccineName, this.availableDoses);
+            EventBus.publish(ChangeEvent.dosesChanged(this.vaccineName, this.availableDoses));
+            return;
+        }
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
+        cm.createConnection();
         try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
-            statement.setString(1, this.vaccineName);
-            statement.setInt(2, this.availableDoses);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
+            new VaccineDao(cm).insert(this.vaccineName, this.availableDoses);
+            VaccineCache.invalidate(this.vaccineName);
+            EventBus.publish(ChangeEvent.dosesChanged(this.vaccineName, this.availableDoses));
         } finally {
             cm.closeConnection();
         }
@@ -52,42 +61,123 @@ public class Vaccine {
         if (num <= 0) {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses += num;
+        // add on the server so concurrent updates can't overwrite each other
+        if (!updateDoses(num)) {
+            throw new SQLException("Vaccine " + this.vaccineName + " does not exist");
+        }
+        EventBus.publish(ChangeEvent.dosesChanged(this.vaccineName, num));
+        Waitlist.dosesFreed(this.vaccineName);
+    }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    // Decrement the available doses
+    public void decreaseAvailableDoses(int num) throws SQLException {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        // the update refuses to go negative even if our copy is stale
+        if (!updateDoses(-num)) {
+            throw new IllegalArgumentException("Not enough available doses!");
+        }
+        EventBus.publish(ChangeEvent.dosesChanged(this.vaccineName, -num));
+    }
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
+    // Apply a delta on the server and refresh availableDoses from the row it returns
+    private boolean updateDoses(int delta) throws SQLException {
+        if (MemoryEngine.isEnabled()) {
+            Integer doses = MemoryEngine.get().addDoses(this.vaccineName, delta);
+            if (doses == null) {
+                return false;
+            }
+            this.availableDoses = doses;
+            return true;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
+            VaccineDao vaccines = new VaccineDao(cm);
+            Integer doses = delta > 0 ? vaccines.addDoses(this.vaccineName, delta)
+                    : vaccines.removeDoses(this.vaccineName, -delta);
+            if (doses == null) {
+                return false;
+            }
+            this.availableDoses = doses;
+            // other writers may already have moved on from doses, so let the next read load it
+            VaccineCache.invalidate(this.vaccineName);
+            return true;
         } finally {
             cm.closeConnection();
         }
     }
 
-    // Decrement the available doses
-    public void decreaseAvailableDoses(int num) throws SQLException {
-        if (this.availableDoses - num < 0) {
+    // Apply one dose change, coalesced with concurrent changes from other sessions into one batch.
+    // Throws IllegalArgumentException if it would leave the vaccine with negative doses.
+    public static void applyDoseDelta(String vaccineName, int delta) throws SQLException {
+        int count = DatabaseExecutor.await(applyDoseDeltaAsync(vaccineName, delta));
+        if (count == 0) {
             throw new IllegalArgumentException("Not enough available doses!");
         }
-        this.availableDoses -= num;
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    }
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
+    public static CompletableFuture<Integer> applyDoseDeltaAsync(String vaccineName, int delta) {
+        CompletableFuture<Integer> applied;
+        if (MemoryEngine.isEnabled()) {
+            applied = MemoryEngine.complete(() -> MemoryEngine.get().mergeDoses(vaccineName, delta) ? 1 : 0);
+        } else {
+            applied = doseBatcher.submit(vaccineName, delta)
+                    .whenComplete((count, error) -> VaccineCache.invalidate(vaccineName));
+        }
+        return applied.thenApply(count -> {
+            if (count > 0) {
+                EventBus.publish(ChangeEvent.dosesChanged(vaccineName, delta));
+            }
+            if (count > 0 && delta > 0) {
+                Waitlist.dosesFreed(vaccineName);
+            }
+            return count;
+        });
+    }
+
+    // Apply many dose changes (positive or negative) in one batched round trip and one transaction.
+    // Unknown vaccines with a positive delta are created. Nothing is applied if any change would
+    // leave a vaccine with negative doses.
+    public static void applyDoseDeltas(Map<String, Integer> deltas) throws SQLException {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        if (MemoryEngine.isEnabled()) {
+            MemoryEngine.get().mergeDoses(deltas);
+        } else {
+            mergeDoses(deltas);
+        }
+        deltas.forEach((name, delta) -> {
+            EventBus.publish(ChangeEvent.dosesChanged(name, delta));
+            if (delta > 0) {
+                Waitlist.dosesFreed(name);
+            }
+        });
+    }
+
+    private static void mergeDoses(Map<String, Integer> deltas) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
+            cm.beginTransaction();
+            List<String> names = new ArrayList<>(deltas.keySet());
+            int[] counts = new VaccineDao(cm).mergeDoses(names, deltas);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    cm.rollback();
+                    throw new IllegalArgumentException("Not enough available doses of " + names.get(i) + "!");
+                }
+            }
+            cm.commit();
         } catch (SQLException e) {
-            throw new SQLException();
+            cm.rollback();
+            throw e;
         } finally {
+            for (String name : deltas.keySet()) {
+                VaccineCache.invalidate(name);
+            }
             cm.closeConnection();
         }
     }
@@ -123,21 +213,30 @@ public class Vaccine {
         }
 
         public Vaccine get() throws SQLException {
+            if (MemoryEngine.isEnabled()) {
+                Integer doses = MemoryEngine.get().getDoses(this.vaccineName);
+                if (doses == null) {
+                    return null;
+                }
+                this.availableDoses = doses;
+                return new Vaccine(this);
+            }
+            Integer cachedDoses = VaccineCache.getDoses(this.vaccineName);
+            if (cachedDoses != null) {
+                this.availableDoses = cachedDoses;
+                return new Vaccine(this);
+            }
             ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
+            cm.createConnection();
             try {
-                PreparedStatement statement = con.prepareStatement(getVaccine);
-                statement.setString(1, this.vaccineName);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    this.availableDoses = resultSet.getInt("Doses");
-                    return new Vaccine(this);
+                long version = VaccineCache.getVersion();
+                Integer doses = new VaccineDao(cm).getDoses(this.vaccineName);
+                if (doses == null) {
+                    return null;
                 }
-                return null;
-            } catch (SQLException e) {
-                throw new SQLException();
+                this.availableDoses = doses;
+                VaccineCache.put(this.vaccineName, this.availableDoses, version);
+                return new Vaccine(this);
             } finally {
                 cm.closeConnection();
             }
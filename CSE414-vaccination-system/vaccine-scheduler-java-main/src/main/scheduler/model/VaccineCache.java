@@ -0,0 +1,117 @@
+package scheduler.model;
+
+import scheduler.util.Util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded, least-recently-used cache of dose counts keyed by vaccine name.
+// Every dose change made in this process drops the vaccine's entry, and entries expire after a
+// short TTL so changes made by other scheduler instances are picked up. The size and TTL can be
+// tuned with the VaccineCacheSize and VaccineCacheTtlMs environment variables.
+public class VaccineCache {
+
+    private static final int MAX_SIZE = Util.getIntSetting("VaccineCacheSize", 256);
+    private static final long TTL_MS = Util.getIntSetting("VaccineCacheTtlMs", 1000);
+
+    private static final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > MAX_SIZE) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    // bumped by every invalidation, so a count read before a concurrent change isn't cached after it
+    private static long version = 0;
+
+    private VaccineCache() {
+    }
+
+    // Returns the cached dose count, or null if the vaccine isn't cached or its entry has expired
+    static Integer getDoses(String vaccineName) {
+        synchronized (entries) {
+            Entry entry = entries.get(vaccineName);
+            if (entry != null && System.currentTimeMillis() - entry.loadedAt <= TTL_MS) {
+                hits.incrementAndGet();
+                return entry.doses;
+            }
+            if (entry != null) {
+                entries.remove(vaccineName);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    // Take before reading a dose count from the database, and pass to put() with the count
+    static long getVersion() {
+        synchronized (entries) {
+            return version;
+        }
+    }
+
+    // Cache a dose count read from the database, unless some change was made since version was taken
+    static void put(String vaccineName, int doses, long version) {
+        if (TTL_MS <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            if (version == VaccineCache.version) {
+                entries.put(vaccineName, new Entry(doses));
+            }
+        }
+    }
+
+    // Drop the entry after the vaccine's doses changed, once the change has committed
+    static void invalidate(String vaccineName) {
+        synchronized (entries) {
+            version++;
+            entries.remove(vaccineName);
+        }
+    }
+
+    public static void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static long getEvictions() {
+        return evictions.get();
+    }
+
+    public static String getStats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return "size=" + size + ", hits=" + hits.get() + ", misses=" + misses.get() +
+                ", evictions=" + evictions.get();
+    }
+
+    private static class Entry {
+        private final int doses;
+        private final long loadedAt = System.currentTimeMillis();
+
+        private Entry(int doses) {
+            this.doses = doses;
+        }
+    }
+}
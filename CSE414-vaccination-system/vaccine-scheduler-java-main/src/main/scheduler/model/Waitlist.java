@@ -0,0 +1,311 @@
+package scheduler.model;
+
+import scheduler.db.AppointmentDao;
+import scheduler.db.AvailabilitySummaryWriter;
+import scheduler.db.ConnectionManager;
+import scheduler.db.VaccineDao;
+import scheduler.db.WaitlistDao;
+import scheduler.events.ChangeEvent;
+import scheduler.events.EventBus;
+import scheduler.memory.MemoryEngine;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Patients waiting for a date and vaccine that had no free caregiver or dose left. Whatever frees up
+// capacity (an availability upload, added doses or a cancellation) reports the affected date or vaccine
+// here, and a background thread books as many waiting patients as the new capacity allows, with one
+// set-based pass per date and vaccine. Reports that arrive while a pass runs are coalesced, so a burst of
+// uploads for one date costs one more pass rather than one per upload.
+public class Waitlist {
+
+    private static final ExecutorService promoter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "waitlist-promoter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // dates and vaccines with freed capacity that the promoter hasn't looked at yet
+    private static final Set<Freed> pending = new LinkedHashSet<>();
+    private static boolean scheduled = false;
+    private static int running = 0;
+
+    private Waitlist() {
+    }
+
+    // Returns false if the patient is already waiting for the date and vaccine. Throws
+    // IllegalStateException with a user-facing message if they already have an appointment for it.
+    public static boolean join(String patientName, String vaccineName, Date time) throws SQLException {
+        boolean joined;
+        if (MemoryEngine.isEnabled()) {
+            joined = MemoryEngine.get().joinWaitlist(patientName, vaccineName, time);
+        } else {
+            ConnectionManager cm = new ConnectionManager();
+            cm.createConnection();
+            try {
+                WaitlistDao waitlist = new WaitlistDao(cm);
+                if (waitlist.isBooked(patientName, vaccineName, time)) {
+                    throw new IllegalStateException("You already have an appointment for " + vaccineName +
+                            " on " + time + "!");
+                }
+                joined = waitlist.join(patientName, vaccineName, time);
+            } finally {
+                cm.closeConnection();
+            }
+        }
+        // capacity may have freed up since the patient last tried
+        capacityFreed(time, vaccineName);
+        return joined;
+    }
+
+    // Returns false if the patient wasn't waiting for the date and vaccine
+    public static boolean leave(String patientName, String vaccineName, Date time) throws SQLException {
+        if (MemoryEngine.isEnabled()) {
+            return MemoryEngine.get().leaveWaitlist(patientName, vaccineName, time);
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            return new WaitlistDao(cm).leave(patientName, vaccineName, time);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Only changes the order with WaitlistOrder=priority. Returns false if the patient isn't waiting.
+    public static boolean setPriority(String patientName, String vaccineName, Date time, int priority)
+            throws SQLException {
+        if (MemoryEngine.isEnabled()) {
+            return MemoryEngine.get().setWaitlistPriority(patientName, vaccineName, time, priority);
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            return new WaitlistDao(cm).setPriority(patientName, vaccineName, time, priority);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public static int countWaiting(Date time, String vaccineName) throws SQLException {
+        if (MemoryEngine.isEnabled()) {
+            return MemoryEngine.get().countWaiting(time, vaccineName);
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            return new WaitlistDao(cm).count(time, vaccineName);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // A caregiver became free on a date, for any vaccine
+    public static void availabilityFreed(Date time) {
+        capacityFreed(time, null);
+    }
+
+    // Doses of a vaccine became available, for any date
+    public static void dosesFreed(String vaccineName) {
+        capacityFreed(null, vaccineName);
+    }
+
+    // Queue a promotion pass for a date and vaccine, either of which may be null for all of them
+    public static void capacityFreed(Date time, String vaccineName) {
+        synchronized (pending) {
+            pending.add(new Freed(time, vaccineName));
+            if (!scheduled) {
+                scheduled = true;
+                running++;
+                promoter.execute(Waitlist::promotePending);
+            }
+        }
+    }
+
+    // Wait until every queued promotion has run, before shutting the storage down
+    public static void awaitIdle() {
+        synchronized (pending) {
+            while (running > 0) {
+                try {
+                    pending.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void promotePending() {
+        try {
+            while (true) {
+                List<Freed> freed;
+                synchronized (pending) {
+                    if (pending.isEmpty()) {
+                        scheduled = false;
+                        return;
+                    }
+                    freed = new ArrayList<>(pending);
+                    pending.clear();
+                }
+                for (Freed capacity : freed) {
+                    try {
+                        promote(capacity);
+                    } catch (SQLException | RuntimeException e) {
+                        // the patients stay on the waitlist for the next pass
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } finally {
+            synchronized (pending) {
+                running--;
+                pending.notifyAll();
+            }
+        }
+    }
+
+    private static void promote(Freed capacity) throws SQLException {
+        if (capacity.time != null && capacity.vaccineName != null) {
+            promote(capacity.time, capacity.vaccineName);
+        } else if (capacity.time != null) {
+            for (String vaccineName : getWaitingVaccines(capacity.time)) {
+                promote(capacity.time, vaccineName);
+            }
+        } else {
+            for (Date time : getWaitingDates(capacity.vaccineName)) {
+                promote(time, capacity.vaccineName);
+            }
+        }
+    }
+
+    private static List<String> getWaitingVaccines(Date time) throws SQLException {
+        if (MemoryEngine.isEnabled()) {
+            return MemoryEngine.get().getWaitingVaccines(time);
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            return new WaitlistDao(cm).getWaitingVaccines(time);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static List<Date> getWaitingDates(String vaccineName) throws SQLException {
+        if (MemoryEngine.isEnabled()) {
+            return MemoryEngine.get().getWaitingDates(vaccineName);
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            return new WaitlistDao(cm).getWaitingDates(vaccineName);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Book as many patients waiting for a date and vaccine as there are free caregivers and doses,
+    // in waitlist order. Returns the appointments made.
+    public static List<AppointmentDao.Row> promote(Date time, String vaccineName) throws SQLException {
+        List<AppointmentDao.Row> booked = MemoryEngine.isEnabled() ? MemoryEngine.get().promote(time, vaccineName)
+                : promoteWithRetries(time, vaccineName);
+        for (AppointmentDao.Row appointment : booked) {
+            EventBus.publish(ChangeEvent.booked(appointment));
+        }
+        return booked;
+    }
+
+    private static List<AppointmentDao.Row> promoteWithRetries(Date time, String vaccineName) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                List<AppointmentDao.Row> booked = tryPromote(time, vaccineName);
+                if (booked != null) {
+                    return booked;
+                }
+            } catch (SQLException e) {
+                if (!ConnectionManager.isDeadlock(e) || attempt == Appointment.AppointmentReserver.MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+            if (attempt == Appointment.AppointmentReserver.MAX_ATTEMPTS) {
+                // the doses keep changing under us, the next report will try again
+                return new ArrayList<>();
+            }
+        }
+    }
+
+    // Returns null if the doses changed under us and the pass has to be tried again
+    private static List<AppointmentDao.Row> tryPromote(Date time, String vaccineName) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        List<AppointmentDao.Row> booked = new ArrayList<>();
+        try {
+            Integer doses = new VaccineDao(cm).getDoses(vaccineName);
+            if (doses == null || doses == 0) {
+                return booked;
+            }
+            // lock the waiting patients, then caregivers and the vaccine as reserve does
+            cm.beginTransaction();
+            WaitlistDao waitlist = new WaitlistDao(cm);
+            int staged = waitlist.stage(time, vaccineName, doses);
+            int claimed = staged == 0 ? 0 : waitlist.claim(time, staged);
+            if (claimed > 0) {
+                if (new VaccineDao(cm).removeDoses(vaccineName, claimed) == null) {
+                    cm.rollback();
+                    return null;
+                }
+                booked = waitlist.book(vaccineName, time);
+            }
+            waitlist.drop();
+            cm.commit();
+        } catch (SQLException e) {
+            cm.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+        if (!booked.isEmpty()) {
+            VaccineCache.invalidate(vaccineName);
+            AvailabilitySummaryWriter.adjust(time, -booked.size());
+            AvailabilityIndex index = AvailabilityIndex.get();
+            for (AppointmentDao.Row appointment : booked) {
+                index.remove(time, appointment.getCaregiverName());
+                index.addLoad(appointment.getCaregiverName(), 1);
+            }
+        }
+        return booked;
+    }
+
+    // A date, a vaccine, or both, with newly free capacity
+    private static class Freed {
+        private final Date time;
+        private final String vaccineName;
+
+        Freed(Date time, String vaccineName) {
+            this.time = time;
+            this.vaccineName = vaccineName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Freed)) {
+                return false;
+            }
+            Freed other = (Freed) o;
+            return Objects.equals(time, other.time) && Objects.equals(vaccineName, other.vaccineName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(time, vaccineName);
+        }
+    }
+}
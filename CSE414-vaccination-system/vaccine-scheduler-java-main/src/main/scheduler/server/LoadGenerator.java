@@ -0,0 +1,124 @@
+package scheduler.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+// Drives a SchedulerServer with many concurrent clients and reports commands/sec and
+// p50/p99 latency per command.
+//
+// usage: LoadGenerator <host> <port> <clients> <iterations> <script>
+// Every client replays the script file <iterations> times. "{client}" and "{iteration}" in a
+// script line are replaced so clients can use distinct usernames, e.g.
+//   create_patient p{client} pw
+//   login_patient p{client} pw
+//   reserve 2023-06-01 moderna
+//   logout
+public class LoadGenerator {
+
+    private final Map<String, List<Long>> latencies = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 5) {
+            System.out.println("usage: LoadGenerator <host> <port> <clients> <iterations> <script>");
+            return;
+        }
+        List<String> script = Files.readAllLines(Paths.get(args[4]));
+        new LoadGenerator().run(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]), script);
+    }
+
+    public void run(String host, int port, int clients, int iterations, List<String> script)
+            throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(clients);
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            Thread t = new Thread(() -> {
+                try {
+                    runClient(host, port, client, iterations, script);
+                } catch (IOException e) {
+                    System.out.println("Client " + client + " failed: " + e.getMessage());
+                } finally {
+                    done.countDown();
+                }
+            }, "load-client-" + c);
+            t.start();
+        }
+        done.await();
+        report((System.nanoTime() - start) / 1e9);
+    }
+
+    private void runClient(String host, int port, int client, int iterations, List<String> script)
+            throws IOException {
+        try (Socket socket = new Socket(host, port);
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(socket.getOutputStream(), false, StandardCharsets.UTF_8)) {
+            socket.setTcpNoDelay(true);
+            readResponse(in);
+            for (int i = 0; i < iterations; i++) {
+                for (String template : script) {
+                    String command = template.replace("{client}", Integer.toString(client))
+                            .replace("{iteration}", Integer.toString(i));
+                    if (command.isBlank()) {
+                        continue;
+                    }
+                    long sent = System.nanoTime();
+                    out.println(command);
+                    out.flush();
+                    readResponse(in);
+                    List<Long> samples = latencies.computeIfAbsent(command.split(" ")[0], k -> new ArrayList<>());
+                    synchronized (samples) {
+                        samples.add(System.nanoTime() - sent);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void readResponse(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.equals(SchedulerServer.END_OF_RESPONSE)) {
+                return;
+            }
+        }
+        throw new IOException("Server closed the connection");
+    }
+
+    private void report(double seconds) {
+        long total = 0;
+        System.out.printf("%-28s %10s %12s %12s %12s%n", "command", "count", "cmds/s", "p50 (ms)", "p99 (ms)");
+        for (Map.Entry<String, List<Long>> entry : new TreeMap<>(latencies).entrySet()) {
+            long[] samples;
+            synchronized (entry.getValue()) {
+                samples = entry.getValue().stream().mapToLong(Long::longValue).toArray();
+            }
+            Arrays.sort(samples);
+            total += samples.length;
+            System.out.printf("%-28s %10d %12.1f %12.3f %12.3f%n", entry.getKey(), samples.length,
+                    samples.length / seconds, percentile(samples, 0.50) / 1e6, percentile(samples, 0.99) / 1e6);
+        }
+        System.out.printf("%-28s %10d %12.1f%n", "total", total, total / seconds);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,102 @@
+package scheduler.server;
+
+import scheduler.Scheduler;
+
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Serves many scheduler sessions over TCP. Each connection gets its own Scheduler, so login state
+// is per session, while the connection pool and caches are shared by the whole process.
+//
+// The protocol is line based: the client sends one command per line, exactly as typed at the
+// console prompt, and the server answers with the command's output followed by a line holding
+// only END_OF_RESPONSE. The greeting sent on connect is terminated the same way.
+public class SchedulerServer {
+
+    public static final int DEFAULT_PORT = 4140;
+    public static final String END_OF_RESPONSE = ".";
+
+    private final int port;
+    private final AtomicInteger activeSessions = new AtomicInteger();
+
+    public SchedulerServer(int port) {
+        this.port = port;
+    }
+
+    public void run() {
+        Scheduler.startStorage();
+        Runtime.getRuntime().addShutdownHook(new Thread(Scheduler::stopStorage));
+
+        ExecutorService sessions = newSessionExecutor();
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("Scheduler server listening on port " + port);
+            while (true) {
+                Socket socket = serverSocket.accept();
+                sessions.execute(() -> serve(socket));
+            }
+        } catch (IOException e) {
+            System.out.println("Scheduler server stopped: " + e.getMessage());
+        } finally {
+            sessions.shutdown();
+        }
+    }
+
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    private void serve(Socket socket) {
+        activeSessions.incrementAndGet();
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(
+                     new BufferedOutputStream(s.getOutputStream()), false, StandardCharsets.UTF_8)) {
+            s.setTcpNoDelay(true);
+            Scheduler scheduler = new Scheduler(out);
+            scheduler.printGreeting();
+            endResponse(out);
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                boolean open = scheduler.execute(line);
+                endResponse(out);
+                if (!open) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // the client went away, its session state goes with it
+        } finally {
+            activeSessions.decrementAndGet();
+        }
+    }
+
+    private static void endResponse(PrintStream out) {
+        out.println(END_OF_RESPONSE);
+        out.flush();
+    }
+
+    // Sessions spend most of their time blocked on the network or the database, so use virtual
+    // threads where the runtime has them and fall back to a cached platform thread pool
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "scheduler-session");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package scheduler.util;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Latency, count, error and row metrics for commands, SQL statements and other hot paths,
+// keyed by names such as "command:reserve" or "sql:UPDATE Vaccines SET ...".
+// Recording is off unless the Metrics environment variable is "true" or it is switched on with
+// setEnabled(); while off, start() and record() do nothing beyond reading a flag.
+// MetricsDumpFile and MetricsDumpIntervalMs write the report to a file periodically.
+public class Metrics {
+
+    private static volatile boolean enabled = Boolean.parseBoolean(Util.getSetting("Metrics", "false"));
+
+    private static final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+
+    static {
+        String dumpFile = Util.getSetting("MetricsDumpFile", null);
+        if (dumpFile != null) {
+            long interval = Util.getIntSetting("MetricsDumpIntervalMs", 60000);
+            ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-dump");
+                t.setDaemon(true);
+                return t;
+            });
+            dumper.scheduleWithFixedDelay(() -> dump(Paths.get(dumpFile)), interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    // Start timing, returns 0 when metrics are off
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public static void record(String name, long start, boolean error) {
+        record(name, start, error, -1);
+    }
+
+    // Record one operation that began at start (from start()); rows < 0 means not applicable
+    public static void record(String name, long start, boolean error, long rows) {
+        if (start == 0 || !enabled) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        Recorder recorder = recorders.computeIfAbsent(name, k -> new Recorder());
+        recorder.latencies.record(elapsed);
+        if (error) {
+            recorder.errors.incrementAndGet();
+        }
+        if (rows > 0) {
+            recorder.rows.addAndGet(rows);
+        }
+    }
+
+    // Add rows to an operation recorded earlier, e.g. once a result set has been read
+    public static void addRows(String name, long rows) {
+        if (!enabled || rows <= 0) {
+            return;
+        }
+        recorders.computeIfAbsent(name, k -> new Recorder()).rows.addAndGet(rows);
+    }
+
+    public static void reset() {
+        recorders.clear();
+    }
+
+    public static void report(PrintStream out) {
+        out.printf("%-60s %9s %7s %9s %10s %10s %10s %10s%n", "name", "count", "errors", "rows",
+                "p50 (us)", "p90 (us)", "p99 (us)", "max (us)");
+        for (Map.Entry<String, Recorder> entry : new TreeMap<>(recorders).entrySet()) {
+            Recorder r = entry.getValue();
+            String name = entry.getKey();
+            if (name.length() > 60) {
+                name = name.substring(0, 57) + "...";
+            }
+            out.printf("%-60s %9d %7d %9d %10.1f %10.1f %10.1f %10.1f%n", name, r.latencies.getCount(),
+                    r.errors.get(), r.rows.get(), r.latencies.getValueAtPercentile(0.50) / 1e3,
+                    r.latencies.getValueAtPercentile(0.90) / 1e3, r.latencies.getValueAtPercentile(0.99) / 1e3,
+                    r.latencies.getMax() / 1e3);
+        }
+    }
+
+    // Replace the dump file with the current report
+    public static void dump(Path file) {
+        try {
+            Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "metrics", ".tmp");
+            try (PrintStream out = new PrintStream(Files.newOutputStream(temp), false, StandardCharsets.UTF_8)) {
+                out.println("# " + Instant.now());
+                report(out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Failed to write metrics to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static class Recorder {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+    }
+}
@@ -0,0 +1,177 @@
+package scheduler.util;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+// PBKDF2 password hashing with a self-describing stored format:
+//   [version][algorithm id][iterations: 4 bytes][key length in bits: 2 bytes][derived key]
+// Hashes written before the format existed (2 derived bytes zero-padded to 16, 10 iterations of
+// PBKDF2WithHmacSHA1) still verify and are reported by needsRehash() so callers can upgrade them.
+// The algorithm, cost and worker count can be tuned with the HashAlgorithm, HashIterations,
+// HashKeyLength and HashThreads environment variables.
+public class PasswordHasher {
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final String[] ALGORITHMS = {
+            "PBKDF2WithHmacSHA1", "PBKDF2WithHmacSHA256", "PBKDF2WithHmacSHA512"
+    };
+
+    // parameters used before the stored format was versioned
+    private static final String LEGACY_ALGORITHM = "PBKDF2WithHmacSHA1";
+    private static final int LEGACY_ITERATIONS = 10;
+    private static final int LEGACY_KEY_LENGTH = 16;
+    private static final int LEGACY_STORED_LENGTH = 16;
+
+    private static final int ALGORITHM_ID = algorithmId(Util.getSetting("HashAlgorithm", "PBKDF2WithHmacSHA256"));
+    private static final int ITERATIONS = Util.getIntSetting("HashIterations", 100000);
+    private static final int KEY_LENGTH = Util.getIntSetting("HashKeyLength", 256);
+    private static final int THREADS = Util.getIntSetting("HashThreads", Runtime.getRuntime().availableProcessors());
+
+    // SecretKeyFactory isn't thread-safe, so each thread keeps its own instance per algorithm
+    private static final ThreadLocal<Map<String, SecretKeyFactory>> factories =
+            ThreadLocal.withInitial(HashMap::new);
+
+    // hashing runs on a fixed set of workers and at most a bounded number of requests wait for them,
+    // so a burst of logins uses every core without queueing unbounded work or starving other threads
+    private static final ExecutorService workers = Executors.newFixedThreadPool(THREADS, r -> {
+        Thread t = new Thread(r, "password-hasher");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final Semaphore inFlight = new Semaphore(THREADS * 64);
+
+    private PasswordHasher() {
+    }
+
+    // Hash a password with the configured algorithm and cost, in the stored format
+    public static byte[] hash(String password, byte[] salt) {
+        return await(hashAsync(password, salt));
+    }
+
+    public static CompletableFuture<byte[]> hashAsync(String password, byte[] salt) {
+        return submit(() -> encode(ALGORITHM_ID, ITERATIONS, KEY_LENGTH,
+                derive(ALGORITHMS[ALGORITHM_ID], password, salt, ITERATIONS, KEY_LENGTH)));
+    }
+
+    // Hash with the configured algorithm and key length but another cost, on the calling thread rather
+    // than the workers, so a benchmark can measure what each cost takes per core
+    public static byte[] hashWithCost(String password, byte[] salt, int iterations) {
+        return encode(ALGORITHM_ID, iterations, KEY_LENGTH,
+                derive(ALGORITHMS[ALGORITHM_ID], password, salt, iterations, KEY_LENGTH));
+    }
+
+    public static int getIterations() {
+        return ITERATIONS;
+    }
+
+    // Check a password against a stored hash in either the versioned or the legacy format
+    public static boolean verify(String password, byte[] salt, byte[] stored) {
+        return await(verifyAsync(password, salt, stored));
+    }
+
+    public static CompletableFuture<Boolean> verifyAsync(String password, byte[] salt, byte[] stored) {
+        return submit(() -> {
+            if (isLegacy(stored)) {
+                byte[] derived = derive(LEGACY_ALGORITHM, password, salt, LEGACY_ITERATIONS, LEGACY_KEY_LENGTH);
+                // the column padded the key with zeros, so compare the key and require only padding after it
+                byte[] padded = new byte[stored.length];
+                System.arraycopy(derived, 0, padded, 0, Math.min(derived.length, padded.length));
+                return MessageDigest.isEqual(padded, stored);
+            }
+            ByteBuffer header = ByteBuffer.wrap(stored, 0, HEADER_LENGTH);
+            header.get();
+            int algorithmId = header.get();
+            int iterations = header.getInt();
+            int keyLength = header.getShort() & 0xFFFF;
+            if (algorithmId < 0 || algorithmId >= ALGORITHMS.length) {
+                return false;
+            }
+            byte[] derived = derive(ALGORITHMS[algorithmId], password, salt, iterations, keyLength);
+            return MessageDigest.isEqual(encode(algorithmId, iterations, keyLength, derived), stored);
+        });
+    }
+
+    // True if a stored hash was made with different parameters than the current configuration
+    public static boolean needsRehash(byte[] stored) {
+        if (isLegacy(stored)) {
+            return true;
+        }
+        ByteBuffer header = ByteBuffer.wrap(stored, 0, HEADER_LENGTH);
+        header.get();
+        return header.get() != ALGORITHM_ID || header.getInt() != ITERATIONS ||
+                (header.getShort() & 0xFFFF) != KEY_LENGTH;
+    }
+
+    private static boolean isLegacy(byte[] stored) {
+        return stored.length <= LEGACY_STORED_LENGTH || stored[0] != FORMAT_VERSION;
+    }
+
+    private static byte[] encode(int algorithmId, int iterations, int keyLength, byte[] derived) {
+        return ByteBuffer.allocate(HEADER_LENGTH + derived.length)
+                .put(FORMAT_VERSION)
+                .put((byte) algorithmId)
+                .putInt(iterations)
+                .putShort((short) keyLength)
+                .put(derived)
+                .array();
+    }
+
+    private static byte[] derive(String algorithm, String password, byte[] salt, int iterations, int keyLength) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, keyLength);
+        try {
+            SecretKeyFactory factory = factories.get().get(algorithm);
+            if (factory == null) {
+                factory = SecretKeyFactory.getInstance(algorithm);
+                factories.get().put(algorithm, factory);
+            }
+            return factory.generateSecret(spec).getEncoded();
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static <T> CompletableFuture<T> submit(Supplier<T> task) {
+        inFlight.acquireUninterruptibly();
+        CompletableFuture<T> future = CompletableFuture.supplyAsync(task, workers);
+        future.whenComplete((result, error) -> inFlight.release());
+        return future;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static int algorithmId(String algorithm) {
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            if (ALGORITHMS[i].equalsIgnoreCase(algorithm)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Unsupported hash algorithm " + algorithm);
+    }
+}
@@ -1,51 +1,70 @@
 package scheduler.util;
 
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
-import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
 
 public class Util {
 
-    // constants for handling password
-    private static final int HASH_STRENGTH = 10;
-    private static final int KEY_LENGTH = 16;
+    // SecureRandom is thread-safe and expensive to seed, so share one instance
+    private static final SecureRandom random = new SecureRandom();
 
     public static byte[] generateSalt() {
         // Generate a random cryptographic salt
-        SecureRandom random = new SecureRandom();
         byte[] salt = new byte[16];
         random.nextBytes(salt);
         return salt;
     }
 
-    public static byte[] generateHash(String password, byte[] salt) {
-        // Specify the hash parameters
-        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
+    // A random, URL-safe session token with 256 bits of entropy
+    public static String generateToken() {
+        byte[] token = new byte[32];
+        random.nextBytes(token);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
 
-        // Generate the hash
-        SecretKeyFactory factory = null;
-        byte[] hash = null;
-        try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            hash = factory.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
-            throw new IllegalStateException();
-        }
+    // Hash a password with the configured algorithm and cost, see PasswordHasher for the stored format
+    public static byte[] generateHash(String password, byte[] salt) {
+        long start = Metrics.start();
+        byte[] hash = PasswordHasher.hash(password, salt);
+        Metrics.record("hash:generate", start, false);
         return hash;
     }
 
-    public static byte[] trim(byte[] bytes)
-    {
-        int i = bytes.length - 1;
-        while (i >= 0 && bytes[i] == 0)
-        {
-            --i;
-        }
+    public static CompletableFuture<byte[]> generateHashAsync(String password, byte[] salt) {
+        long start = Metrics.start();
+        return PasswordHasher.hashAsync(password, salt)
+                .whenComplete((hash, e) -> Metrics.record("hash:generate", start, e != null));
+    }
+
+    // Check a password against a stored hash, including hashes stored before the format was versioned
+    public static boolean verifyHash(String password, byte[] salt, byte[] hash) {
+        long start = Metrics.start();
+        boolean matches = PasswordHasher.verify(password, salt, hash);
+        Metrics.record("hash:verify", start, false);
+        return matches;
+    }
+
+    // True if a stored hash should be regenerated with the current hashing parameters
+    public static boolean needsRehash(byte[] hash) {
+        return PasswordHasher.needsRehash(hash);
+    }
+
+    // Read a configuration value from the environment
+    public static String getSetting(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : value.trim();
+    }
 
-        return Arrays.copyOf(bytes, i + 1);
+    public static int getIntSetting(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
     }
 }
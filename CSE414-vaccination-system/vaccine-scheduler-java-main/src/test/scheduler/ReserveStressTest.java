@@ -0,0 +1,243 @@
+package scheduler;
+
+import scheduler.db.AppointmentDao;
+import scheduler.db.AvailabilityDao;
+import scheduler.db.ConnectionManager;
+import scheduler.db.VaccineDao;
+import scheduler.memory.MemoryEngine;
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Many threads reserve and cancel appointments for the same few dates at once, then the stored state is
+// checked: no caregiver is booked twice or both booked and free on a date, every (caregiver, date) slot
+// that was uploaded is still either free or booked, and the doses never went negative and add up with
+// the appointments made. Runs against the storage the settings select, like the scheduler itself, e.g.
+//
+//   Storage=memory MemoryDir=/tmp/stress java -cp out:... scheduler.ReserveStressTest
+//   Storage=embedded java -cp out:h2.jar:... scheduler.ReserveStressTest
+//
+// With Storage=memory the engine is also closed and recovered from its log, and checked again.
+// Names are unique to each run, so it can be repeated against the same database. Exits with 1 on failure.
+//
+// usage: ReserveStressTest [threads=16] [operations=2000] [caregivers=8] [dates=4] [doses=24]
+public class ReserveStressTest {
+
+    private final int threads;
+    private final int operations;
+    private final int caregiverCount;
+    private final int dateCount;
+    private final int doses;
+
+    private final String prefix = "stress" + Long.toString(System.currentTimeMillis(), 36) + "_";
+    private final String vaccineName = prefix + "vax";
+    private final List<String> caregivers = new ArrayList<>();
+    private final List<Date> dates = new ArrayList<>();
+    private final List<String> failures = new ArrayList<>();
+
+    // what the threads saw succeed, checked against the storage at the end
+    private final Map<Integer, AppointmentDao.Row> booked = new ConcurrentHashMap<>();
+    private final AtomicInteger reserves = new AtomicInteger();
+    private final AtomicInteger cancels = new AtomicInteger();
+    private final AtomicInteger refused = new AtomicInteger();
+    private final AtomicInteger lowestDoses = new AtomicInteger(Integer.MAX_VALUE);
+
+    private ReserveStressTest(Map<String, Integer> settings) {
+        this.threads = settings.getOrDefault("threads", 16);
+        this.operations = settings.getOrDefault("operations", 2000);
+        this.caregiverCount = settings.getOrDefault("caregivers", 8);
+        this.dateCount = settings.getOrDefault("dates", 4);
+        this.doses = settings.getOrDefault("doses", 24);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Integer> settings = new ConcurrentHashMap<>();
+        for (String arg : args) {
+            String[] setting = arg.split("=", 2);
+            settings.put(setting[0], Integer.parseInt(setting[1]));
+        }
+        ReserveStressTest test = new ReserveStressTest(settings);
+        Scheduler.startStorage();
+        try {
+            test.seed();
+            test.run();
+            test.check("after the run");
+            if (MemoryEngine.isEnabled()) {
+                MemoryEngine.shutdown();
+                test.check("after recovering the in-memory engine");
+            }
+        } finally {
+            Scheduler.stopStorage();
+        }
+        boolean passed = test.failures.isEmpty();
+        System.out.println(test.reserves.get() + " reserved, " + test.cancels.get() + " cancelled, " +
+                test.refused.get() + " refused for lack of a caregiver or dose, lowest dose count seen " +
+                test.lowestDoses.get());
+        for (String failure : test.failures) {
+            System.out.println("FAILED: " + failure);
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private void seed() throws SQLException {
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash("stress-password", salt);
+        for (int d = 0; d < dateCount; d++) {
+            dates.add(Date.valueOf(LocalDate.of(2040, 1, 1).plusDays(d)));
+        }
+        for (int c = 0; c < caregiverCount; c++) {
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(prefix + "cg" + c, salt, hash).build();
+            caregiver.saveToDB();
+            caregiver.uploadAvailability(dates);
+            caregivers.add(caregiver.getUsername());
+        }
+        for (int t = 0; t < threads; t++) {
+            new Patient.PatientBuilder(prefix + "p" + t, salt, hash).build().saveToDB();
+        }
+        new Vaccine.VaccineBuilder(vaccineName, doses).build().saveToDB();
+    }
+
+    // Each thread is one patient who reserves on a random date, or cancels one of their appointments
+    private void run() throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String patientName = prefix + "p" + t;
+            Random random = new Random(t);
+            Thread worker = new Thread(() -> {
+                List<Integer> own = new ArrayList<>();
+                try {
+                    start.await();
+                    for (int i = 0; i < operations / threads; i++) {
+                        if (!own.isEmpty() && random.nextInt(3) == 0) {
+                            int appointmentId = own.remove(random.nextInt(own.size()));
+                            new Appointment.AppointmentCanceller(appointmentId, patientName, false).cancel();
+                            booked.remove(appointmentId);
+                            cancels.incrementAndGet();
+                        } else {
+                            reserve(patientName, dates.get(random.nextInt(dates.size())), own);
+                        }
+                        Vaccine vaccine = new Vaccine.VaccineGetter(vaccineName).get();
+                        lowestDoses.accumulateAndGet(vaccine.getAvailableDoses(), Math::min);
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    fail(patientName + " got " + e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "stress-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private void reserve(String patientName, Date time, List<Integer> own) throws SQLException {
+        try {
+            Appointment appointment = new Appointment.AppointmentReserver(patientName, vaccineName, time).reserve();
+            own.add(appointment.getAppointmentId());
+            booked.put(appointment.getAppointmentId(), new AppointmentDao.Row(appointment.getAppointmentId(),
+                    patientName, appointment.getCaregiverName(), vaccineName, time));
+            reserves.incrementAndGet();
+        } catch (IllegalStateException e) {
+            // no caregiver or dose left on that date, which is expected once the run gets going
+            refused.incrementAndGet();
+        }
+    }
+
+    private void check(String when) throws SQLException {
+        int remaining = getDoses();
+        if (remaining < 0) {
+            fail(when + ": " + remaining + " doses left");
+        }
+        if (lowestDoses.get() < 0) {
+            fail(when + ": the dose count went down to " + lowestDoses.get());
+        }
+        Set<Integer> stored = new HashSet<>();
+        for (Date time : dates) {
+            Set<String> free = new HashSet<>(getFreeCaregivers(time));
+            for (String caregiverName : caregivers) {
+                List<AppointmentDao.Row> appointments = getAppointments(caregiverName, time);
+                for (AppointmentDao.Row appointment : appointments) {
+                    stored.add(appointment.getAppointmentId());
+                }
+                int slots = appointments.size() + (free.contains(caregiverName) ? 1 : 0);
+                if (appointments.size() > 1) {
+                    fail(when + ": " + caregiverName + " has " + appointments.size() + " appointments on " + time);
+                } else if (slots != 1) {
+                    fail(when + ": " + caregiverName + " on " + time + " is " +
+                            (slots == 0 ? "neither free nor booked" : "both free and booked"));
+                }
+            }
+        }
+        if (!stored.equals(booked.keySet())) {
+            fail(when + ": the stored appointments " + stored + " aren't the ones still booked " + booked.keySet());
+        }
+        if (remaining + stored.size() != doses) {
+            fail(when + ": " + remaining + " doses left and " + stored.size() + " appointments out of " + doses);
+        }
+    }
+
+    // Read straight from the storage like search_caregiver_schedule does, past the caches
+    private int getDoses() throws SQLException {
+        if (MemoryEngine.isEnabled()) {
+            return MemoryEngine.get().getDoses(vaccineName);
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            return new VaccineDao(cm).getDoses(vaccineName);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private List<String> getFreeCaregivers(Date time) throws SQLException {
+        if (MemoryEngine.isEnabled()) {
+            return MemoryEngine.get().getCaregivers(time);
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            return new AvailabilityDao(cm).getCaregivers(time);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private List<AppointmentDao.Row> getAppointments(String caregiverName, Date time) throws SQLException {
+        if (MemoryEngine.isEnabled()) {
+            return MemoryEngine.get().getPage(true, caregiverName, 0, Integer.MAX_VALUE, time, time);
+        }
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            return new AppointmentDao(cm).getPageForCaregiver(caregiverName, 0, Integer.MAX_VALUE, time, time);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private synchronized void fail(String failure) {
+        failures.add(failure);
+    }
+}
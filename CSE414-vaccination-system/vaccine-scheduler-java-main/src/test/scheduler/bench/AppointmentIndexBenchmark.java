@@ -0,0 +1,150 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.Scheduler;
+import scheduler.db.ConnectionManager;
+import scheduler.db.EmbeddedBackend;
+import scheduler.db.SchemaScript;
+import scheduler.memory.MemoryEngine;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// show_appointments with the Appointments indexes of create.sql and with them dropped, printing the
+// plan the database picks for each. The indexes are created again when the trial ends. Needs a database,
+// a local embedded one will do.
+//
+//   Storage=embedded mvn test-compile exec:exec -Djmh.args="AppointmentIndexBenchmark"
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AppointmentIndexBenchmark {
+
+    private static final List<String> APPOINTMENT_INDEXES = Arrays.asList("IX_Appointments_Patient",
+            "IX_Appointments_Caregiver", "IX_Appointments_Time_Caregiver");
+
+    @Param({"true", "false"})
+    public boolean indexed;
+
+    private BenchmarkData data;
+    private Scheduler patient;
+    private Scheduler caregiver;
+    private final List<String> createIndexes = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void start() throws IOException, SQLException {
+        if (MemoryEngine.isEnabled()) {
+            throw new IllegalStateException("The Appointments indexes need a database, not Storage=memory");
+        }
+        data = BenchmarkData.start(50, 30, 10, 200, 500);
+        patient = data.session(data.patientLogin(0));
+        caregiver = data.session(data.caregiverLogin(0));
+        for (String statement : SchemaScript.statements(SchemaScript.load())) {
+            for (String index : APPOINTMENT_INDEXES) {
+                if (statement.startsWith("CREATE INDEX " + index + " ")) {
+                    createIndexes.add(statement);
+                }
+            }
+        }
+        if (!indexed) {
+            for (String index : APPOINTMENT_INDEXES) {
+                execute(ConnectionManager.getBackend() instanceof EmbeddedBackend ? "DROP INDEX " + index
+                        : "DROP INDEX " + index + " ON Appointments");
+            }
+        }
+        String byPatient = "SELECT TOP (50) Appointment_id, Patient_name, Caregiver_name, Vaccine_name, Time " +
+                "FROM Appointments WHERE Patient_name = '" + data.patient(0) + "' AND Appointment_id > 0 " +
+                "AND Time BETWEEN '0001-01-01' AND '9999-12-31' ORDER BY Appointment_id";
+        printPlan("patient", byPatient);
+        printPlan("caregiver", byPatient.replace("Patient_name = '" + data.patient(0) + "'",
+                "Caregiver_name = '" + data.caregiver(0) + "'"));
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        try {
+            for (String createIndex : createIndexes) {
+                try {
+                    execute(createIndex);
+                } catch (SQLException e) {
+                    // it was never dropped
+                }
+            }
+        } finally {
+            BenchmarkData.stop();
+        }
+    }
+
+    @Benchmark
+    public boolean showAppointmentsPatient() {
+        return BenchmarkData.execute(patient, "show_appointments");
+    }
+
+    @Benchmark
+    public boolean showAppointmentsCaregiver() {
+        return BenchmarkData.execute(caregiver, "show_appointments");
+    }
+
+    // Print the plan the database picks for a query, without running it
+    private static void printPlan(String name, String query) throws SQLException {
+        boolean embedded = ConnectionManager.getBackend() instanceof EmbeddedBackend;
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (Statement statement = con.createStatement()) {
+            if (!embedded) {
+                statement.execute("SET SHOWPLAN_TEXT ON");
+            }
+            try {
+                System.out.println("plan for " + name + ":");
+                boolean results = statement.execute(embedded ? "EXPLAIN " + ConnectionManager.getBackend()
+                        .translate(query) : query);
+                while (results) {
+                    try (ResultSet resultSet = statement.getResultSet()) {
+                        while (resultSet.next()) {
+                            System.out.println("  " + resultSet.getString(1).trim());
+                        }
+                    }
+                    results = statement.getMoreResults();
+                }
+            } finally {
+                if (!embedded) {
+                    statement.execute("SET SHOWPLAN_TEXT OFF");
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static void execute(String sql) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            cm.execute(sql);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
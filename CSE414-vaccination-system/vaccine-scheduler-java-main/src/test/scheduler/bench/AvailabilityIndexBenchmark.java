@@ -0,0 +1,62 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import scheduler.model.AvailabilityIndex;
+
+import java.sql.Date;
+import java.util.concurrent.TimeUnit;
+
+// Taking a caregiver from an availability index of many caregivers free on every date, and putting
+// them back, as a reserve and its rollback do. Prints the index's footprint. Needs no storage.
+//
+//   mvn test-compile exec:exec -Djmh.args="AvailabilityIndexBenchmark -p caregivers=1000"
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AvailabilityIndexBenchmark {
+
+    @Param("10000")
+    public int caregivers;
+    @Param("365")
+    public int days;
+
+    private AvailabilityIndex index;
+    private Date[] dates;
+    private int next = 0;
+
+    @Setup
+    public void fill() {
+        index = new AvailabilityIndex();
+        dates = new Date[days];
+        for (int d = 0; d < days; d++) {
+            dates[d] = BenchmarkData.date(d);
+            for (int c = 0; c < caregivers; c++) {
+                index.add(dates[d], "cg" + c);
+            }
+        }
+        System.out.printf("availability index, %d caregivers x %d dates: %s%n", caregivers, days, index.getStats());
+    }
+
+    @Benchmark
+    public void takeAndAdd(Blackhole blackhole) {
+        Date day = dates[next];
+        next = (next + 1) % days;
+        String caregiverName = index.take(day);
+        index.add(day, caregiverName);
+        blackhole.consume(caregiverName);
+    }
+}
@@ -0,0 +1,178 @@
+package scheduler.bench;
+
+import scheduler.Scheduler;
+import scheduler.db.ConnectionManager;
+import scheduler.db.SchemaScript;
+import scheduler.memory.MemoryEngine;
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// The accounts, availability, vaccines and appointments the Scheduler benchmarks run against, in the
+// storage the settings select, and the helpers they share. Names are unique to each fork, so the
+// benchmarks can be repeated against the same database. With InitSchema=1 resources/create.sql is run
+// first, for an empty SQL Server database; with Storage=embedded the schema is created on first connect.
+class BenchmarkData {
+
+    static final String PASSWORD = "bench-password";
+    static final LocalDate FIRST_DATE = LocalDate.of(2030, 1, 1);
+    private static final Pattern APPOINTMENT_ID = Pattern.compile("Appointment ID: (\\d+)");
+
+    final String prefix = "bench" + Long.toString(System.currentTimeMillis(), 36) + "_";
+    final int caregivers;
+    final int dates;
+    final int vaccines;
+    final int patients;
+    private final PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+    private BenchmarkData(int caregivers, int dates, int vaccines, int patients) {
+        this.caregivers = caregivers;
+        this.dates = dates;
+        this.vaccines = vaccines;
+        this.patients = patients;
+    }
+
+    // Start the storage and seed it, every caregiver free on every date
+    static BenchmarkData start(int caregivers, int dates, int vaccines, int patients, int appointments)
+            throws IOException, SQLException {
+        if (Util.getIntSetting("InitSchema", 0) == 1 && !MemoryEngine.isEnabled()) {
+            initSchema();
+        }
+        Scheduler.startStorage();
+        BenchmarkData data = new BenchmarkData(caregivers, dates, vaccines, patients);
+        data.seed(appointments);
+        return data;
+    }
+
+    static void stop() {
+        Scheduler.stopStorage();
+    }
+
+    // Run each statement of create.sql, translated for the configured storage backend
+    private static void initSchema() throws IOException, SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (Statement statement = con.createStatement()) {
+            for (String ddl : SchemaScript.statements(SchemaScript.load())) {
+                statement.execute(ConnectionManager.getBackend().translate(ddl));
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private void seed(int appointments) throws SQLException {
+        // one hash is enough, every seeded account shares the password
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash(PASSWORD, salt);
+        List<Date> days = new ArrayList<>();
+        for (int d = 0; d < dates; d++) {
+            days.add(date(d));
+        }
+        for (int c = 0; c < caregivers; c++) {
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(caregiver(c), salt, hash).build();
+            caregiver.saveToDB();
+            caregiver.uploadAvailability(days);
+        }
+        for (int p = 0; p < patients; p++) {
+            new Patient.PatientBuilder(patient(p), salt, hash).build().saveToDB();
+        }
+        Map<String, Integer> doses = new LinkedHashMap<>();
+        for (int v = 0; v < vaccines; v++) {
+            doses.put(vaccine(v), 1_000_000);
+        }
+        Vaccine.applyDoseDeltas(doses);
+        for (int a = 0; a < appointments; a++) {
+            Scheduler session = session(patientLogin(a % patients));
+            session.execute("reserve " + days.get(a % dates) + " " + vaccine(a % vaccines));
+        }
+    }
+
+    String caregiver(int c) {
+        return prefix + "cg" + c;
+    }
+
+    String patient(int p) {
+        return prefix + "p" + p;
+    }
+
+    String vaccine(int v) {
+        return prefix + "vax" + v;
+    }
+
+    static Date date(int day) {
+        return Date.valueOf(FIRST_DATE.plusDays(day));
+    }
+
+    String patientLogin(int p) {
+        return "login_patient " + patient(p) + " " + PASSWORD;
+    }
+
+    String caregiverLogin(int c) {
+        return "login_caregiver " + caregiver(c) + " " + PASSWORD;
+    }
+
+    // A session that is logged in with the given command, or not at all if it is null
+    Scheduler session(String login) {
+        return session(login, discard);
+    }
+
+    Scheduler session(String login, PrintStream out) {
+        Scheduler session = new Scheduler(out);
+        if (login != null) {
+            execute(session, login);
+        }
+        return session;
+    }
+
+    // Run a command that has to succeed, so a benchmark never times an error path by accident
+    static boolean execute(Scheduler session, String command) {
+        session.execute(command);
+        if (!session.lastCommandSucceeded()) {
+            throw new IllegalStateException("Failed: " + command);
+        }
+        return true;
+    }
+
+    // Cancel the appointment a reserve printed to out, if it booked one, and clear out
+    static void cancelReserved(ByteArrayOutputStream out, String patientName) throws SQLException {
+        Matcher booked = APPOINTMENT_ID.matcher(out.toString(StandardCharsets.UTF_8));
+        out.reset();
+        if (booked.find()) {
+            new Appointment.AppointmentCanceller(Integer.parseInt(booked.group(1)), patientName, false).cancel();
+        }
+    }
+
+    // Make the first n seeded caregivers free on day
+    void uploadAvailability(LocalDate day, int n) throws SQLException {
+        for (int c = 0; c < n; c++) {
+            new Caregiver.CaregiverBuilder(caregiver(c), null, null).build().uploadAvailability(Date.valueOf(day));
+        }
+    }
+
+    // Book one appointment for the first patient on day, on fresh availability, and return its id
+    int book(LocalDate day) throws SQLException {
+        uploadAvailability(day, 1);
+        return new Appointment.AppointmentReserver(patient(0), vaccine(0), Date.valueOf(day)).reserve()
+                .getAppointmentId();
+    }
+}
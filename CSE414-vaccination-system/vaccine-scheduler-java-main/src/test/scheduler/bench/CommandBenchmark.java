@@ -0,0 +1,248 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.Scheduler;
+import scheduler.model.Vaccine;
+import scheduler.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Every Scheduler command path against the storage the settings select: a database through
+// ConnectionManager, normally a local embedded engine, or the in-memory engine with Storage=memory.
+// Sample time gives the latency percentiles; add -bm thrpt for ops/s and -prof gc for bytes per op.
+//
+// Commands that use something up are undone or prepared outside the timed part, e.g. reserve cancels
+// the previous appointment in a per-invocation set-up, so every sample times a successful command.
+// Those set-ups cost far less than the milliseconds a command takes, which keeps Level.Invocation honest.
+// Sessions are shared, so run these on one thread.
+//
+//   Storage=embedded mvn test-compile exec:exec -Djmh.args="CommandBenchmark"
+//   Storage=memory MemoryDir=/tmp/bench mvn test-compile exec:exec -Djmh.args="CommandBenchmark.reserve"
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class World {
+        @Param("50")
+        public int caregivers;
+        @Param("30")
+        public int dates;
+        @Param("10")
+        public int vaccines;
+        @Param("200")
+        public int patients;
+        @Param("500")
+        public int appointments;
+
+        BenchmarkData data;
+        Scheduler anonymous;
+        Scheduler patient;
+        Scheduler caregiver;
+        private int next = 0;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException, SQLException {
+            data = BenchmarkData.start(caregivers, dates, vaccines, patients, appointments);
+            anonymous = data.session(null);
+            patient = data.session(data.patientLogin(0));
+            caregiver = data.session(data.caregiverLogin(0));
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            BenchmarkData.stop();
+        }
+
+        // a different date, vaccine or account for each sample
+        int next() {
+            return next++;
+        }
+    }
+
+    // A patient session whose previous reservation is cancelled before each sample, so the seeded
+    // availability never runs out
+    @State(Scope.Benchmark)
+    public static class Reserver {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Scheduler session;
+
+        @Setup(Level.Trial)
+        public void login(World world) {
+            session = world.data.session(world.data.patientLogin(0), new PrintStream(out, true));
+        }
+
+        @Setup(Level.Invocation)
+        public void cancelPrevious(World world) throws SQLException {
+            BenchmarkData.cancelReserved(out, world.data.patient(0));
+        }
+    }
+
+    // An appointment of its own for each sample, on a date nobody else uses
+    @State(Scope.Benchmark)
+    public static class Booked {
+        private int day = 0;
+        int appointmentId;
+
+        @Setup(Level.Invocation)
+        public void book(World world) throws SQLException {
+            appointmentId = world.data.book(BenchmarkData.FIRST_DATE.plusYears(40).plusDays(day++));
+        }
+    }
+
+    // A booked date of its own for each sample
+    @State(Scope.Benchmark)
+    public static class BookedDay {
+        private int next = 0;
+        LocalDate day;
+
+        @Setup(Level.Invocation)
+        public void book(World world) throws SQLException {
+            day = BenchmarkData.FIRST_DATE.plusYears(50).plusDays(next++);
+            world.data.book(day);
+        }
+    }
+
+    // A file of patients for reserve_batch and a date with enough free caregivers for all of them
+    @State(Scope.Benchmark)
+    public static class Group {
+        @Param("10")
+        public int batch;
+
+        private Path file;
+        private int next = 0;
+        LocalDate day;
+
+        @Setup(Level.Trial)
+        public void writeFile(World world) throws IOException {
+            batch = Math.min(batch, Math.min(world.caregivers, world.patients));
+            List<String> patientNames = new ArrayList<>();
+            for (int p = 0; p < batch; p++) {
+                patientNames.add(world.data.patient(p));
+            }
+            file = Files.createTempFile("bench-batch", ".txt");
+            Files.write(file, patientNames, StandardCharsets.UTF_8);
+        }
+
+        @Setup(Level.Invocation)
+        public void upload(World world) throws SQLException {
+            day = BenchmarkData.FIRST_DATE.plusYears(60).plusDays(next++);
+            world.data.uploadAvailability(day, batch);
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteFile() throws IOException {
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public byte[] generateHash() {
+        return Util.generateHash(BenchmarkData.PASSWORD, Util.generateSalt());
+    }
+
+    @Benchmark
+    public Vaccine vaccineGet(World world) throws SQLException {
+        return new Vaccine.VaccineGetter(world.data.vaccine(world.next() % world.vaccines)).get();
+    }
+
+    @Benchmark
+    public boolean createPatient(World world) {
+        return BenchmarkData.execute(world.anonymous, "create_patient " + world.data.prefix + "new_p" +
+                world.next() + " " + BenchmarkData.PASSWORD);
+    }
+
+    @Benchmark
+    public boolean createCaregiver(World world) {
+        return BenchmarkData.execute(world.anonymous, "create_caregiver " + world.data.prefix + "new_cg" +
+                world.next() + " " + BenchmarkData.PASSWORD);
+    }
+
+    @Benchmark
+    public boolean loginPatient(World world) {
+        return BenchmarkData.execute(world.data.session(null), world.data.patientLogin(world.next() % world.patients));
+    }
+
+    @Benchmark
+    public boolean loginCaregiver(World world) {
+        return BenchmarkData.execute(world.data.session(null),
+                world.data.caregiverLogin(world.next() % world.caregivers));
+    }
+
+    @Benchmark
+    public boolean searchCaregiverSchedule(World world) {
+        return BenchmarkData.execute(world.patient, "search_caregiver_schedule " +
+                BenchmarkData.date(world.next() % world.dates));
+    }
+
+    @Benchmark
+    public boolean showAppointmentsPatient(World world) {
+        return BenchmarkData.execute(world.patient, "show_appointments");
+    }
+
+    @Benchmark
+    public boolean showAppointmentsCaregiver(World world) {
+        return BenchmarkData.execute(world.caregiver, "show_appointments");
+    }
+
+    @Benchmark
+    public boolean addDoses(World world) {
+        return BenchmarkData.execute(world.caregiver, "add_doses " +
+                world.data.vaccine(world.next() % world.vaccines) + " 1");
+    }
+
+    // dates far enough out that they never collide with seeded availability
+    @Benchmark
+    public boolean uploadAvailability(World world) {
+        return BenchmarkData.execute(world.caregiver, "upload_availability " +
+                BenchmarkData.FIRST_DATE.plusYears(10).plusDays(world.next()));
+    }
+
+    @Benchmark
+    public boolean reserve(World world, Reserver reserver) {
+        int i = world.next();
+        return BenchmarkData.execute(reserver.session, "reserve " + BenchmarkData.date(i % world.dates) + " " +
+                world.data.vaccine(i % world.vaccines));
+    }
+
+    @Benchmark
+    public boolean cancel(World world, Booked booked) {
+        return BenchmarkData.execute(world.patient, "cancel " + booked.appointmentId);
+    }
+
+    @Benchmark
+    public boolean cancelDate(World world, BookedDay booked) {
+        return BenchmarkData.execute(world.caregiver, "cancel_date " + booked.day);
+    }
+
+    @Benchmark
+    public boolean reserveBatch(World world, Group group) {
+        return BenchmarkData.execute(world.caregiver, "reserve_batch " + group.day + " " +
+                world.data.vaccine(world.next() % world.vaccines) + " " + group.file);
+    }
+}
@@ -0,0 +1,47 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.util.PasswordHasher;
+import scheduler.util.Util;
+
+import java.util.concurrent.TimeUnit;
+
+// What each password hashing cost takes on one thread, i.e. per core, which bounds how many logins a
+// core can verify per second. The configured cost is set with HashIterations. Needs no storage.
+//
+//   mvn test-compile exec:exec -Djmh.args="HashingBenchmark"
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class HashingBenchmark {
+
+    @Param({"10000", "100000", "310000", "600000"})
+    public int iterations;
+
+    private byte[] salt;
+
+    @Setup
+    public void generateSalt() {
+        salt = Util.generateSalt();
+    }
+
+    @Benchmark
+    public byte[] hash() {
+        return PasswordHasher.hashWithCost(BenchmarkData.PASSWORD, salt, iterations);
+    }
+}
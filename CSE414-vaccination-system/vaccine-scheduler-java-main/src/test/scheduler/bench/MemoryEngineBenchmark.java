@@ -0,0 +1,176 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.db.AppointmentDao;
+import scheduler.memory.MemoryEngine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// The in-memory engine on its own, write-ahead log included: reservations from many threads, each
+// cancelled again so the availability never runs out, and how long it takes to recover the state that
+// a run of reservations left behind. Works in a new temporary directory and needs no database.
+//
+//   mvn test-compile exec:exec -Djmh.args="MemoryEngineBenchmark -p reservations=100000"
+@Fork(1)
+public class MemoryEngineBenchmark {
+
+    private static final byte[] SALT = new byte[16];
+    private static final byte[] HASH = new byte[32];
+
+    @State(Scope.Benchmark)
+    public static class Engine {
+        @Param("1000")
+        public int caregivers;
+        @Param("365")
+        public int dates;
+        @Param("10")
+        public int vaccines;
+        @Param("10000")
+        public int patients;
+
+        Path directory;
+        MemoryEngine engine;
+        Date[] days;
+        final AtomicInteger next = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void open() throws IOException, SQLException {
+            directory = Files.createTempDirectory("memory-engine-bench");
+            engine = MemoryEngine.open(directory);
+            seed(engine, caregivers, dates, vaccines, patients, Integer.MAX_VALUE / 2);
+            days = days(dates);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            engine.close();
+            delete(directory);
+        }
+    }
+
+    // A directory with the snapshot and log of a seeded engine after a run of reservations
+    @State(Scope.Benchmark)
+    public static class Saved {
+        @Param("1000")
+        public int caregivers;
+        @Param("365")
+        public int dates;
+        @Param("10")
+        public int vaccines;
+        @Param("10000")
+        public int patients;
+        @Param("1000000")
+        public int reservations;
+
+        Path directory;
+        MemoryEngine recovered;
+
+        @Setup(Level.Trial)
+        public void save() throws IOException, SQLException {
+            directory = Files.createTempDirectory("memory-engine-bench");
+            MemoryEngine engine = MemoryEngine.open(directory);
+            int booked = Math.min(reservations, caregivers * dates);
+            seed(engine, caregivers, dates, vaccines, patients, booked);
+            Date[] days = days(dates);
+            for (int i = 0; i < booked; i++) {
+                engine.reserve("patient" + (i % patients), "vaccine" + (i % vaccines), days[i % dates]);
+            }
+            engine.close();
+            System.out.printf("%n%d reservations saved, %d bytes on disk%n", booked, size(directory));
+        }
+
+        @TearDown(Level.Invocation)
+        public void closeRecovered() throws IOException {
+            System.out.printf("%nrecovered: %s%n", recovered.getStats());
+            recovered.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            MemoryEngineBenchmark.delete(directory);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Threads(8)
+    public AppointmentDao.Row reserveAndCancel(Engine state) throws SQLException {
+        int i = state.next.getAndIncrement() & Integer.MAX_VALUE;
+        String patientName = "patient" + (i % state.patients);
+        AppointmentDao.Row appointment = state.engine.reserve(patientName, "vaccine" + (i % state.vaccines),
+                state.days[i % state.dates]);
+        return state.engine.cancel(appointment.getAppointmentId(), patientName, false);
+    }
+
+    // every invocation recovers from the snapshot the previous one closed with
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    @Threads(1)
+    public MemoryEngine recover(Saved state) throws IOException {
+        state.recovered = MemoryEngine.open(state.directory);
+        return state.recovered;
+    }
+
+    private static void seed(MemoryEngine engine, int caregivers, int dates, int vaccines, int patients, int doses)
+            throws SQLException {
+        List<Date> days = new ArrayList<>(List.of(days(dates)));
+        for (int c = 0; c < caregivers; c++) {
+            engine.addCaregiver("caregiver" + c, SALT, HASH);
+            engine.addAvailability(days, "caregiver" + c);
+        }
+        for (int v = 0; v < vaccines; v++) {
+            engine.addVaccine("vaccine" + v, doses);
+        }
+        for (int p = 0; p < patients; p++) {
+            engine.addPatient("patient" + p, SALT, HASH);
+        }
+    }
+
+    private static Date[] days(int dates) {
+        Date[] days = new Date[dates];
+        for (int d = 0; d < dates; d++) {
+            days[d] = BenchmarkData.date(d);
+        }
+        return days;
+    }
+
+    private static long size(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.infra.ThreadParams;
+import scheduler.Scheduler;
+import scheduler.memory.MemoryEngine;
+import scheduler.model.AssignmentPolicy;
+import scheduler.model.AvailabilityIndex;
+import scheduler.model.Caregiver;
+
+import java.io.IOException;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Many sessions reserving at once with each caregiver assignment policy. Every iteration uploads fresh
+// availability for exactly the reservations it makes, and the sessions book its dates in order, so they
+// all compete for the same date at once. After each iteration it prints how many reservations were
+// booked, how many index candidates turned out stale and how evenly the caregivers were booked.
+// Needs a database, the in-memory engine always books the first free caregiver.
+//
+//   Storage=embedded mvn test-compile exec:exec -Djmh.args="ReservePolicyBenchmark -t 8 -bs 250"
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, batchSize = 250)
+@Measurement(iterations = 5, batchSize = 250)
+@Fork(1)
+@Threads(8)
+public class ReservePolicyBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class World {
+        @Param({"first", "least_loaded", "round_robin", "random"})
+        public String policy;
+        @Param("50")
+        public int caregivers;
+        @Param("10")
+        public int vaccines;
+        @Param("200")
+        public int patients;
+
+        BenchmarkData data;
+        final List<Date> days = new ArrayList<>();
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger booked = new AtomicInteger();
+        private LocalDate firstDay = BenchmarkData.FIRST_DATE.plusYears(20);
+        private int[] loadsBefore;
+        private long staleBefore;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException, SQLException {
+            if (MemoryEngine.isEnabled()) {
+                throw new IllegalStateException("Assignment policies need a database, not Storage=memory");
+            }
+            data = BenchmarkData.start(caregivers, 1, vaccines, patients, 0);
+            AvailabilityIndex.get().setPolicy(AssignmentPolicy.forName(policy));
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            BenchmarkData.stop();
+        }
+
+        // Every caregiver free on as many new dates as the iteration's reservations fill
+        @Setup(Level.Iteration)
+        public void upload(BenchmarkParams benchmark, IterationParams iteration) throws SQLException {
+            int reservations = benchmark.getThreads() * iteration.getBatchSize();
+            days.clear();
+            for (int d = 0; d * caregivers < reservations; d++) {
+                days.add(Date.valueOf(firstDay.plusDays(d)));
+            }
+            firstDay = firstDay.plusDays(days.size());
+            AvailabilityIndex index = AvailabilityIndex.get();
+            loadsBefore = new int[caregivers];
+            for (int c = 0; c < caregivers; c++) {
+                new Caregiver.CaregiverBuilder(data.caregiver(c), null, null).build().uploadAvailability(days);
+                loadsBefore[c] = index.getLoad(data.caregiver(c));
+            }
+            staleBefore = index.getStaleCandidates();
+            next.set(0);
+            booked.set(0);
+        }
+
+        @TearDown(Level.Iteration)
+        public void report() {
+            AvailabilityIndex index = AvailabilityIndex.get();
+            int minLoad = Integer.MAX_VALUE;
+            int maxLoad = 0;
+            for (int c = 0; c < caregivers; c++) {
+                int load = index.getLoad(data.caregiver(c)) - loadsBefore[c];
+                minLoad = Math.min(minLoad, load);
+                maxLoad = Math.max(maxLoad, load);
+            }
+            System.out.printf("%n%s: %d booked, %d stale candidates, caregiver load %d to %d%n", policy,
+                    booked.get(), index.getStaleCandidates() - staleBefore, minLoad, maxLoad);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Session {
+        Scheduler session;
+
+        @Setup(Level.Trial)
+        public void login(World world, ThreadParams thread) {
+            session = world.data.session(world.data.patientLogin(thread.getThreadIndex() % world.patients));
+        }
+    }
+
+    @Benchmark
+    public boolean reserve(World world, Session session) {
+        int i = world.next.getAndIncrement();
+        session.session.execute("reserve " + world.days.get(Math.min(i / world.caregivers, world.days.size() - 1)) +
+                " " + world.data.vaccine(i % world.vaccines));
+        boolean booked = session.session.lastCommandSucceeded();
+        if (booked) {
+            world.booked.incrementAndGet();
+        }
+        return booked;
+    }
+}